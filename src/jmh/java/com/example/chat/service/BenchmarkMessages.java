@@ -0,0 +1,42 @@
+package com.example.chat.service;
+
+import com.example.chat.model.ChatMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.Random;
+
+// Fixtures shared by the benchmarks: the ObjectMapper Spring Boot would build and chat messages of
+// a given content length
+final class BenchmarkMessages {
+
+    private static final String WORDS = "hey did you see the build is green again lunch at noon sounds good "
+            + "can someone review my pull request thanks on it now ";
+
+    private BenchmarkMessages() {
+    }
+
+    static ObjectMapper objectMapper() {
+        return Jackson2ObjectMapperBuilder.json()
+                .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .build();
+    }
+
+    static MessageCodecs codecs(String codec) {
+        return new MessageCodecs(objectMapper(), codec);
+    }
+
+    // Content is cut from chat-like text at a random offset, so pages do not repeat one string
+    static ChatMessage message(String roomId, int contentLength, Random random) {
+        StringBuilder content = new StringBuilder(contentLength);
+        int offset = random.nextInt(WORDS.length());
+        while (content.length() < contentLength) {
+            content.append(WORDS.charAt(offset++ % WORDS.length()));
+        }
+        ChatMessage message = new ChatMessage(content.toString(), "user" + random.nextInt(1000), roomId,
+                ChatMessage.MessageType.CHAT);
+        message.setId(Long.toHexString(random.nextLong()));
+        return message;
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.chat.service;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompEncoder;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.sockjs.frame.Jackson2SockJsMessageCodec;
+import org.springframework.web.socket.sockjs.frame.SockJsMessageCodec;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+// What one delivered message costs on the way out to one subscriber, per endpoint: /ws sends the
+// STOMP frame JSON-escaped inside a SockJS a[...] frame, /ws-native sends it as is. With deflate
+// the frame is compressed the way Tomcat's permessage-deflate does it: raw deflate keeping the
+// window across messages, a sync flush per message and the 4 byte tail dropped. JMH sums the
+// wireBytes and frames counters over the measured iterations; their ratio is the average WebSocket
+// frame size, header included. Test contents are cut from one short text, which flatters deflate.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DeliveryFrameBenchmark {
+
+    // Distinct messages cycled through, so deflate cannot just point back at the previous one
+    private static final int MESSAGES = 256;
+
+    @Param({"sockjs", "native"})
+    private String endpoint;
+
+    @Param({"false", "true"})
+    private boolean deflate;
+
+    @Param({"32", "256"})
+    private int contentLength;
+
+    private final StompEncoder stompEncoder = new StompEncoder();
+    private final SockJsMessageCodec sockJsCodec = new Jackson2SockJsMessageCodec();
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final byte[] deflated = new byte[64 * 1024];
+    private byte[][] payloads;
+    private int next;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class WireBytes {
+
+        public long wireBytes;
+        public long frames;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            wireBytes = 0;
+            frames = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        MessageCodecs codecs = BenchmarkMessages.codecs("json");
+        Random random = new Random(42);
+        payloads = new byte[MESSAGES][];
+        for (int i = 0; i < MESSAGES; i++) {
+            payloads[i] = codecs.encode(BenchmarkMessages.message("room-1", contentLength, random));
+        }
+    }
+
+    @Benchmark
+    public int deliver(WireBytes wire) {
+        byte[] payload = payloads[next++ & (MESSAGES - 1)];
+
+        // As StompSubProtocolHandler writes a broker message for one session
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.MESSAGE);
+        accessor.setDestination("/topic/room/room-1");
+        accessor.setSubscriptionId("sub-0");
+        accessor.setMessageId(Integer.toString(next));
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        String frame = new String(stompEncoder.encode(MessageBuilder.createMessage(payload, accessor.getMessageHeaders())),
+                StandardCharsets.UTF_8);
+        if ("sockjs".equals(endpoint)) {
+            frame = sockJsCodec.encode(frame);
+        }
+        byte[] bytes = frame.getBytes(StandardCharsets.UTF_8);
+
+        int length = bytes.length;
+        if (deflate) {
+            deflater.setInput(bytes);
+            length = deflater.deflate(deflated, 0, deflated.length, Deflater.SYNC_FLUSH) - 4;
+        }
+        int wireLength = length + (length < 126 ? 2 : length < 65536 ? 4 : 10);
+        wire.wireBytes += wireLength;
+        wire.frames++;
+        return wireLength;
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.chat.service;
+
+import com.example.chat.model.ChatMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// The decode half of RedisService.getMessageHistory: turning the raw entries a history read
+// returns into a page of messages, as readHistory does once the script reply is in
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HistoryDecodeBenchmark {
+
+    @Param({"json", "smile"})
+    private String codec;
+
+    // A REST page and the default history limit
+    @Param({"20", "100"})
+    private int pageSize;
+
+    private MessageCodecs messageCodecs;
+    private List<byte[]> entries;
+
+    @Setup
+    public void setUp() {
+        messageCodecs = BenchmarkMessages.codecs(codec);
+        Random random = new Random(42);
+        entries = new ArrayList<>(pageSize);
+        for (int i = 0; i < pageSize; i++) {
+            // Mostly short messages with the occasional long one
+            int contentLength = i % 10 == 0 ? 2048 : 40 + random.nextInt(200);
+            entries.add(messageCodecs.encode(BenchmarkMessages.message("room-1", contentLength, random)));
+        }
+    }
+
+    @Benchmark
+    public List<ChatMessage> decodePage() {
+        List<ChatMessage> messages = new ArrayList<>(entries.size());
+        for (byte[] entry : entries) {
+            messages.add(messageCodecs.decode(entry));
+        }
+        return messages;
+    }
+}
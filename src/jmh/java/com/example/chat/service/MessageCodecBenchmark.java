@@ -0,0 +1,61 @@
+package com.example.chat.service;
+
+import com.example.chat.model.ChatMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Cost of one message through the codec: encode on send, decode on history reads, and the JSON
+// conversion a binary codec needs before a message can go to STOMP clients
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessageCodecBenchmark {
+
+    @Param({"json", "smile"})
+    private String codec;
+
+    // A short reply, a typical message, and a pasted log or code block
+    @Param({"32", "256", "4096"})
+    private int contentLength;
+
+    private MessageCodecs messageCodecs;
+    private ChatMessage message;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() {
+        messageCodecs = BenchmarkMessages.codecs(codec);
+        message = BenchmarkMessages.message("room-1", contentLength, new Random(42));
+        encoded = messageCodecs.encode(message);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return messageCodecs.encode(message);
+    }
+
+    @Benchmark
+    public ChatMessage decode() {
+        return messageCodecs.decode(encoded);
+    }
+
+    @Benchmark
+    public byte[] toJson() {
+        return messageCodecs.toJson(encoded);
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.chat.service;
+
+import com.example.chat.model.ChatRoom;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// ChatRoom to and from its room:{id} hash, for current hashes and for rooms written by the old
+// JSON value serializer
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RoomMappingBenchmark {
+
+    private ChatRoom room;
+    private Map<String, String> hash;
+    private Map<String, String> legacyHash;
+
+    @Setup
+    public void setUp() throws Exception {
+        room = new ChatRoom("05233cab96a2a000", "Backend team", "Deploys, incidents and the occasional lunch plan");
+        hash = RoomHashMapper.toHash(room);
+
+        ObjectMapper objectMapper = BenchmarkMessages.objectMapper();
+        legacyHash = new HashMap<>();
+        for (Map.Entry<String, String> field : hash.entrySet()) {
+            legacyHash.put(field.getKey(), objectMapper.writeValueAsString(field.getValue()));
+        }
+        legacyHash.put("userCount", "0");
+    }
+
+    @Benchmark
+    public Map<String, String> toHash() {
+        return RoomHashMapper.toHash(room);
+    }
+
+    @Benchmark
+    public ChatRoom fromHash() {
+        return RoomHashMapper.fromHash(hash);
+    }
+
+    @Benchmark
+    public ChatRoom fromLegacyHash() {
+        return RoomHashMapper.fromHash(legacyHash);
+    }
+}
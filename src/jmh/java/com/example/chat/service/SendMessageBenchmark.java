@@ -0,0 +1,110 @@
+package com.example.chat.service;
+
+import com.example.chat.config.BatchSubscriptions;
+import com.example.chat.config.NodeIdentity;
+import com.example.chat.model.ChatMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// ChatService.sendMessage on the caller's thread: id assignment, encoding, local fan-out and
+// handing the append to the write-behind buffer. Redis itself is left out; the buffer's flusher
+// completes appends in memory, so the numbers show what the app adds on top of the round trip.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SendMessageBenchmark {
+
+    @Param({"json", "smile"})
+    private String codec;
+
+    private ChatService chatService;
+    private MessageAppendBuffer appendBuffer;
+    private ChatMessage template;
+
+    @Setup
+    public void setUp() {
+        MessageCodecs messageCodecs = BenchmarkMessages.codecs(codec);
+        IdGenerator idGenerator = new SnowflakeIdGenerator(1);
+        AtomicLong position = new AtomicLong();
+        appendBuffer = new MessageAppendBuffer(256, 5, 100000,
+                batch -> batch.forEach(append -> append.result.complete(position.incrementAndGet())));
+        appendBuffer.start();
+
+        ChatMetrics chatMetrics = new ChatMetrics(new SimpleMeterRegistry(), 10);
+        RedisService redisService = new BufferedRedisService(messageCodecs, idGenerator, chatMetrics, appendBuffer);
+        // Broker delivery is a no-op, as with a room nobody on this node subscribes to
+        SimpMessagingTemplate messagingTemplate = new SimpMessagingTemplate((message, timeout) -> true);
+        MessageDispatcher messageDispatcher = new MessageDispatcher(messagingTemplate, messageCodecs,
+                new MessageBatcher(messagingTemplate, new BatchSubscriptions(false), new SimpleMeterRegistry(),
+                        false, "simple", 25, 100));
+        RoomUserCounts roomUserCounts = new RoomUserCounts(redisService, 60000);
+        chatService = new ChatService(redisService, messageDispatcher,
+                new PresenceTracker(redisService, roomUserCounts, new SimpleMeterRegistry()), roomUserCounts,
+                idGenerator, chatMetrics,
+                new SendRateLimiter(redisService, new SimpleMeterRegistry(), false, 5, 10, 50, 100, false),
+                new RoomActivityTracker(redisService, 60000, 5, 5000));
+        template = BenchmarkMessages.message("room-1", 120, new Random(42));
+    }
+
+    @TearDown
+    public void tearDown() {
+        appendBuffer.close();
+    }
+
+    @Benchmark
+    public ChatMessage sendMessage() {
+        ChatMessage message = new ChatMessage(template.getContent(), template.getSender(), template.getRoomId(),
+                ChatMessage.MessageType.CHAT);
+        chatService.sendMessage(message);
+        return message;
+    }
+
+    // Real id assignment and encoding; saveMessage queues on the given buffer instead of Redis
+    private static final class BufferedRedisService extends RedisService {
+
+        private final MessageAppendBuffer appendBuffer;
+
+        BufferedRedisService(MessageCodecs messageCodecs, IdGenerator idGenerator, ChatMetrics chatMetrics,
+                             MessageAppendBuffer appendBuffer) {
+            super(new RedisTemplate<>(), new StringRedisTemplate(), null, messageCodecs, new NodeIdentity("bench"),
+                    new HistoryCache(new SimpleMeterRegistry(), false, 0, 0, 0, 0),
+                    new HistoryArchive(messageCodecs, new NodeIdentity("bench"), new SimpleMeterRegistry(),
+                            false, "target/archive", 100, 8388608, 1, 1),
+                    idGenerator, chatMetrics,
+                    HISTORY_BACKEND_LIST, new StaticListableBeanFactory().getBeanProvider(ReactiveStringRedisTemplate.class));
+            this.appendBuffer = appendBuffer;
+        }
+
+        @Override
+        public CompletableFuture<Long> saveMessage(ChatMessage message, byte[] encoded) {
+            MessageAppendBuffer.PendingAppend append = new MessageAppendBuffer.PendingAppend(
+                    message.getRoomId(), message, encoded, System.currentTimeMillis());
+            appendBuffer.add(append);
+            return append.result;
+        }
+    }
+}
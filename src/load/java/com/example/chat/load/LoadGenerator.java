@@ -0,0 +1,394 @@
+package com.example.chat.load;
+
+import com.example.chat.SimpleChatApplication;
+import com.sun.management.OperatingSystemMXBean;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+import org.springframework.web.socket.sockjs.client.SockJsClient;
+import org.springframework.web.socket.sockjs.client.WebSocketTransport;
+import redis.embedded.RedisServer;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.reflect.Type;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Headless load test for the /ws or /ws-native endpoint. Opens sessions spread over rooms (and nodes), joins
+// them, sends chat messages at a fixed total rate and measures how long each one takes to reach
+// every member of its room. By default one or two nodes run in this JVM on an embedded Redis;
+// --urls points it at nodes that are already running instead.
+//
+//   mvn -Pperf test-compile exec:exec@load -Dload.args="--nodes=2 --sessions=400 --rooms=40 --rate=2000"
+//
+// Options (defaults): --nodes (1), --sessions (100), --rooms (10), --rate messages/s (500),
+// --warmup s (10), --duration s (30), --payload content chars (128), --hgrm output file
+// (target/load-latency.hgrm), --endpoint sockjs or native (sockjs), --deflate=true to offer
+// permessage-deflate, --urls comma separated ws:// urls of that endpoint, --batch=true to subscribe
+// for batched delivery (JSON array frames). Other --app.*, --spring.*
+// and --server.* options are passed to the embedded nodes, e.g. --app.chat.codec=smile.
+public final class LoadGenerator {
+
+    // Every load message's content starts with its intended send time: "lt:<nanoTime>:"
+    private static final String MARKER = "\"content\":\"lt:";
+
+    private final int sessions;
+    private final int rooms;
+    private final int rate;
+    private final int warmupSeconds;
+    private final int durationSeconds;
+    private final String padding;
+    private final boolean batch;
+    private final boolean nativeEndpoint;
+    private final boolean deflate;
+
+    // Latencies in microseconds: per reporting interval, and over the measured phase only
+    private final Recorder intervalRecorder = new Recorder(3);
+    private final Recorder measuredRecorder = new Recorder(3);
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong expected = new AtomicLong();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder intervalDelivered = new LongAdder();
+    private final LongAdder transportErrors = new LongAdder();
+    private volatile long measureStart = Long.MAX_VALUE;
+    private long measureCpuStart;
+
+    private LoadGenerator(int sessions, int rooms, int rate, int warmupSeconds, int durationSeconds, int payload,
+                          boolean batch, boolean nativeEndpoint, boolean deflate) {
+        this.sessions = sessions;
+        this.rooms = rooms;
+        this.rate = rate;
+        this.warmupSeconds = warmupSeconds;
+        this.durationSeconds = durationSeconds;
+        this.padding = "x".repeat(payload);
+        this.batch = batch;
+        this.nativeEndpoint = nativeEndpoint;
+        this.deflate = deflate;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        List<String> nodeArgs = new ArrayList<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --name=value but got " + arg);
+            }
+            String name = arg.substring(2, arg.indexOf('='));
+            if (name.startsWith("app.") || name.startsWith("spring.") || name.startsWith("server.")) {
+                nodeArgs.add(arg);
+            } else {
+                options.put(name, arg.substring(arg.indexOf('=') + 1));
+            }
+        }
+
+        LoadGenerator generator = new LoadGenerator(
+                intOption(options, "sessions", 100),
+                intOption(options, "rooms", 10),
+                intOption(options, "rate", 500),
+                intOption(options, "warmup", 10),
+                intOption(options, "duration", 30),
+                intOption(options, "payload", 128),
+                Boolean.parseBoolean(options.getOrDefault("batch", "false")),
+                endpointOption(options),
+                Boolean.parseBoolean(options.getOrDefault("deflate", "false")));
+        File hgrm = new File(options.getOrDefault("hgrm", "target/load-latency.hgrm"));
+
+        RedisServer redisServer = null;
+        List<ConfigurableApplicationContext> nodes = new ArrayList<>();
+        List<String> urls;
+        try {
+            if (options.containsKey("urls")) {
+                urls = Arrays.asList(options.get("urls").split(","));
+            } else {
+                int redisPort = freePort();
+                redisServer = new RedisServer(redisPort);
+                redisServer.start();
+                urls = new ArrayList<>();
+                for (int i = 0; i < intOption(options, "nodes", 1); i++) {
+                    ConfigurableApplicationContext node = startNode(i, redisPort, nodeArgs);
+                    nodes.add(node);
+                    urls.add("ws://localhost:" + node.getEnvironment().getProperty("local.server.port")
+                            + (endpointOption(options) ? "/ws-native" : "/ws"));
+                }
+                // spring.threads.virtual.enabled only takes effect on Java 21+, so report what the
+                // nodes' REST and STOMP handlers actually run on
+                System.out.printf("Handler threads: %s (Java %d)%n",
+                        Threading.VIRTUAL.isActive(nodes.get(0).getEnvironment()) ? "virtual" : "platform",
+                        Runtime.version().feature());
+            }
+            generator.run(urls, !nodes.isEmpty(), hgrm);
+        } finally {
+            nodes.forEach(ConfigurableApplicationContext::close);
+            if (redisServer != null) {
+                redisServer.stop();
+            }
+        }
+        System.exit(0);
+    }
+
+    private static ConfigurableApplicationContext startNode(int index, int redisPort, List<String> nodeArgs) {
+        List<String> args = new ArrayList<>(List.of(
+                "--server.port=0",
+                "--spring.data.redis.port=" + redisPort,
+                "--app.chat.node-id=load-node-" + index,
+                "--app.chat.worker-id=" + index,
+                "--spring.main.banner-mode=off",
+                // The generated rates are far above the per-sender limit; --app.chat.rate-limit.enabled=true
+                // measures the limiter instead
+                "--app.chat.rate-limit.enabled=false",
+                // application.properties logs every STOMP frame at DEBUG
+                "--logging.level.com.example.chat=WARN",
+                "--logging.level.org.springframework.messaging=WARN",
+                "--logging.level.org.springframework.web.socket=WARN"));
+        args.addAll(nodeArgs);
+        return new SpringApplicationBuilder(SimpleChatApplication.class).run(args.toArray(new String[0]));
+    }
+
+    private void run(List<String> urls, boolean nodesInProcess, File hgrm) throws Exception {
+        System.out.printf("%d nodes, %d sessions in %d rooms, %d messages/s, %ds warmup + %ds measured, %s%s%s%n",
+                urls.size(), sessions, rooms, rate, warmupSeconds, durationSeconds,
+                nativeEndpoint ? "native WebSocket" : "SockJS", deflate ? " with permessage-deflate" : "",
+                batch ? ", batched delivery" : "");
+
+        // Session i connects to node i % nodes and joins room (i / nodes) % rooms, so with several
+        // nodes every room has members on each of them and messages have to cross Redis
+        WebSocketStompClient stompClient = new WebSocketStompClient(nativeEndpoint
+                ? new StandardWebSocketClient()
+                : new SockJsClient(List.of(new WebSocketTransport(new StandardWebSocketClient()))));
+        stompClient.setInboundMessageSizeLimit(1024 * 1024);
+        WebSocketHttpHeaders handshakeHeaders = new WebSocketHttpHeaders();
+        if (deflate) {
+            handshakeHeaders.setSecWebSocketExtensions(List.of(new WebSocketExtension("permessage-deflate")));
+        }
+        List<CompletableFuture<StompSession>> connecting = new ArrayList<>(sessions);
+        for (int i = 0; i < sessions; i++) {
+            connecting.add(stompClient.connectAsync(urls.get(i % urls.size()), handshakeHeaders, new StompSessionHandlerAdapter() {
+                @Override
+                public void handleTransportError(StompSession session, Throwable exception) {
+                    transportErrors.increment();
+                }
+            }));
+        }
+        List<Client> clients = new ArrayList<>(sessions);
+        int[] roomSizes = new int[rooms];
+        for (int i = 0; i < sessions; i++) {
+            int room = (i / urls.size()) % rooms;
+            Client client = new Client(connecting.get(i).get(30, TimeUnit.SECONDS), "load-room-" + room, room, "load-user-" + i);
+            client.join();
+            clients.add(client);
+            roomSizes[room]++;
+        }
+        System.out.printf("Connected %d sessions%n", clients.size());
+
+        Map<String, long[]> gcBefore = gcSnapshot();
+        ManagementFactory.getMemoryPoolMXBeans().forEach(MemoryPoolMXBean::resetPeakUsage);
+
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        long start = System.nanoTime();
+        measureStart = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long end = measureStart + TimeUnit.SECONDS.toNanos(durationSeconds);
+        reporter.scheduleAtFixedRate(() -> report(start), 1, 1, TimeUnit.SECONDS);
+
+        // Sends are paced against a fixed schedule and latency is taken from the scheduled time, so
+        // a stalled send shows up as latency instead of silently lowering the rate
+        long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        for (long k = 0; ; k++) {
+            long intended = start + k * interval;
+            if (intended >= end) {
+                break;
+            }
+            long wait = intended - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            Client client = clients.get((int) (k % clients.size()));
+            client.send(intended);
+            if (intended >= measureStart) {
+                if (measureCpuStart == 0) {
+                    measureCpuStart = processCpuNanos();
+                }
+                sent.incrementAndGet();
+                expected.addAndGet(roomSizes[client.room]);
+            }
+        }
+
+        // Give the last messages time to arrive
+        long drainUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (delivered.sum() < expected.get() && System.nanoTime() < drainUntil) {
+            Thread.sleep(50);
+        }
+        long measureCpu = processCpuNanos() - measureCpuStart;
+        reporter.shutdown();
+        reporter.awaitTermination(5, TimeUnit.SECONDS);
+
+        Map<String, long[]> gcAfter = gcSnapshot();
+        Histogram latency = measuredRecorder.getIntervalHistogram();
+        printSummary(latency, measureCpu, gcBefore, gcAfter, nodesInProcess);
+        try (PrintStream out = new PrintStream(hgrm, StandardCharsets.UTF_8)) {
+            latency.outputPercentileDistribution(out, 1000.0);
+        }
+        System.out.printf("Latency distribution (ms) written to %s%n", hgrm.getPath());
+    }
+
+    private void report(long start) {
+        Histogram interval = intervalRecorder.getIntervalHistogram();
+        long elapsed = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start);
+        System.out.printf("%4ds %-7s delivered %8d/s  p50 %7.2f ms  p99 %7.2f ms  max %7.2f ms%n",
+                elapsed, System.nanoTime() < measureStart ? "warmup" : "measure", intervalDelivered.sumThenReset(),
+                interval.getValueAtPercentile(50) / 1000.0, interval.getValueAtPercentile(99) / 1000.0,
+                interval.getMaxValue() / 1000.0);
+    }
+
+    private void printSummary(Histogram latency, long measureCpu, Map<String, long[]> gcBefore,
+                              Map<String, long[]> gcAfter, boolean nodesInProcess) {
+        long deliveredCount = delivered.sum();
+        System.out.println();
+        System.out.printf("Sent %d messages (%.0f/s), delivered %d of %d expected (%d missing), %d transport errors%n",
+                sent.get(), sent.get() / (double) durationSeconds, deliveredCount, expected.get(),
+                Math.max(0, expected.get() - deliveredCount), transportErrors.sum());
+        System.out.printf("Send-to-receive latency (ms): p50 %.2f  p90 %.2f  p99 %.2f  p99.9 %.2f  max %.2f%n",
+                latency.getValueAtPercentile(50) / 1000.0, latency.getValueAtPercentile(90) / 1000.0,
+                latency.getValueAtPercentile(99) / 1000.0, latency.getValueAtPercentile(99.9) / 1000.0,
+                latency.getMaxValue() / 1000.0);
+        System.out.printf("CPU while measuring: %.1f s, %.1f us per delivered message%s%n",
+                measureCpu / 1e9, deliveredCount == 0 ? 0 : measureCpu / 1000.0 / deliveredCount,
+                nodesInProcess ? " (nodes and load generator)" : " (load generator only)");
+
+        System.out.println(nodesInProcess
+                ? "GC and heap (nodes and load generator share this JVM):"
+                : "GC and heap (load generator JVM only):");
+        gcAfter.forEach((name, after) -> {
+            long[] before = gcBefore.getOrDefault(name, new long[2]);
+            System.out.printf("  %-24s %6d collections %8d ms%n", name, after[0] - before[0], after[1] - before[1]);
+        });
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        long mb = 1024 * 1024;
+        System.out.printf("  heap used %d MB at end, peak %d MB, max %d MB%n",
+                ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / mb, peak / mb,
+                Runtime.getRuntime().maxMemory() / mb);
+    }
+
+    private static boolean endpointOption(Map<String, String> options) {
+        String endpoint = options.getOrDefault("endpoint", "sockjs");
+        if (!endpoint.equals("sockjs") && !endpoint.equals("native")) {
+            throw new IllegalArgumentException("--endpoint must be sockjs or native but was " + endpoint);
+        }
+        return endpoint.equals("native");
+    }
+
+    // CPU time of every thread in this JVM
+    private static long processCpuNanos() {
+        return ((OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getProcessCpuTime();
+    }
+
+    private static Map<String, long[]> gcSnapshot() {
+        Map<String, long[]> snapshot = new LinkedHashMap<>();
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            snapshot.put(gc.getName(), new long[] {gc.getCollectionCount(), gc.getCollectionTime()});
+        }
+        return snapshot;
+    }
+
+    private static int intOption(Map<String, String> options, String name, int defaultValue) {
+        String value = options.get(name);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+
+    private static int freePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private final class Client implements StompFrameHandler {
+
+        final StompSession session;
+        final String roomId;
+        final int room;
+        final String username;
+        final StompHeaders sendHeaders = new StompHeaders();
+
+        Client(StompSession session, String roomId, int room, String username) {
+            this.session = session;
+            this.roomId = roomId;
+            this.room = room;
+            this.username = username;
+            sendHeaders.setDestination("/app/chat.sendMessage/" + roomId);
+            sendHeaders.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        }
+
+        void join() {
+            StompHeaders subscribe = new StompHeaders();
+            subscribe.setDestination("/topic/room/" + roomId);
+            if (batch) {
+                subscribe.set("batch", "true");
+            }
+            session.subscribe(subscribe, this);
+            StompHeaders headers = new StompHeaders();
+            headers.setDestination("/app/chat.joinRoom/" + roomId);
+            headers.setContentType(MimeTypeUtils.APPLICATION_JSON);
+            session.send(headers, ("{\"sender\":\"" + username + "\",\"type\":\"JOIN\"}").getBytes(StandardCharsets.UTF_8));
+        }
+
+        void send(long intended) {
+            String json = "{\"sender\":\"" + username + "\",\"content\":\"lt:" + intended + ":" + padding + "\",\"type\":\"CHAT\"}";
+            session.send(sendHeaders, json.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public Type getPayloadType(StompHeaders headers) {
+            return byte[].class;
+        }
+
+        @Override
+        public void handleFrame(StompHeaders headers, Object payload) {
+            long received = System.nanoTime();
+            String json = new String((byte[]) payload, StandardCharsets.UTF_8);
+            // A batch frame carries several messages; join and leave notices carry no marker
+            for (int at = json.indexOf(MARKER); at >= 0; at = json.indexOf(MARKER, at + 1)) {
+                int from = at + MARKER.length();
+                long intended = Long.parseLong(json, from, json.indexOf(':', from), 10);
+                long micros = TimeUnit.NANOSECONDS.toMicros(received - intended);
+                intervalRecorder.recordValue(micros);
+                intervalDelivered.increment();
+                if (intended >= measureStart) {
+                    measuredRecorder.recordValue(micros);
+                    delivered.increment();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.chat.config;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Opt-in batched delivery. A client that subscribes to /topic/room/{id} with a "batch:true" header
+// is subscribed to /topic/room-batch/{id} instead, where MessageBatcher sends JSON arrays of the
+// room's messages. This interceptor on the inbound channel makes that switch and counts each room's
+// batch subscribers on this node, so rooms nobody opted in for are never batched. With batching
+// disabled the header is ignored and such clients get the room's messages one frame at a time.
+@Component
+public class BatchSubscriptions implements ChannelInterceptor {
+
+    public static final String BATCH_HEADER = "batch";
+    public static final String ROOM_PREFIX = "/topic/room/";
+    public static final String BATCH_ROOM_PREFIX = "/topic/room-batch/";
+
+    private final boolean enabled;
+    private final Map<String, AtomicInteger> subscribersByRoom = new ConcurrentHashMap<>();
+    // Session id -> subscription id -> room id, to undo the counts on UNSUBSCRIBE and DISCONNECT
+    private final Map<String, Map<String, String>> sessions = new ConcurrentHashMap<>();
+
+    @Autowired
+    public BatchSubscriptions(@Value("${app.chat.delivery.batch.enabled:true}") boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        if (accessor == null) {
+            return message;
+        }
+        StompCommand command = accessor.getCommand();
+        if (StompCommand.SUBSCRIBE.equals(command)) {
+            return subscribe(message, accessor);
+        }
+        if (StompCommand.UNSUBSCRIBE.equals(command)) {
+            Map<String, String> subscriptions = sessions.get(accessor.getSessionId());
+            if (subscriptions != null) {
+                release(subscriptions.remove(accessor.getSubscriptionId()));
+            }
+        } else if (StompCommand.DISCONNECT.equals(command)) {
+            // Sent by the client and again when the session closes; the second finds nothing
+            Map<String, String> subscriptions = sessions.remove(accessor.getSessionId());
+            if (subscriptions != null) {
+                subscriptions.values().forEach(this::release);
+            }
+        }
+        return message;
+    }
+
+    private Message<?> subscribe(Message<?> message, StompHeaderAccessor accessor) {
+        String destination = accessor.getDestination();
+        if (!enabled || destination == null || !destination.startsWith(ROOM_PREFIX)
+                || !"true".equalsIgnoreCase(accessor.getFirstNativeHeader(BATCH_HEADER))) {
+            return message;
+        }
+        String roomId = destination.substring(ROOM_PREFIX.length());
+        sessions.computeIfAbsent(accessor.getSessionId(), id -> new ConcurrentHashMap<>())
+                .put(accessor.getSubscriptionId(), roomId);
+        subscribersByRoom.computeIfAbsent(roomId, id -> new AtomicInteger()).incrementAndGet();
+
+        StompHeaderAccessor rewritten = StompHeaderAccessor.wrap(message);
+        rewritten.setDestination(BATCH_ROOM_PREFIX + roomId);
+        return MessageBuilder.createMessage(message.getPayload(), rewritten.getMessageHeaders());
+    }
+
+    private void release(String roomId) {
+        if (roomId == null) {
+            return;
+        }
+        subscribersByRoom.computeIfPresent(roomId, (id, count) -> count.decrementAndGet() <= 0 ? null : count);
+    }
+
+    public boolean hasSubscribers(String roomId) {
+        return subscribersByRoom.containsKey(roomId);
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.chat.config;
+
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+// Executors for the clientInbound/clientOutbound channels. Spring only accepts a
+// ThreadPoolTaskExecutor there, so the virtual variant is a pool whose workers are virtual threads.
+public final class ChannelExecutors {
+
+    private ChannelExecutors() {
+    }
+
+    public static ThreadPoolTaskExecutor platform(String threadNamePrefix, int poolSize,
+                                                  int maxPoolSize, int queueCapacity) {
+        int corePoolSize = poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors() * 2;
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix(threadNamePrefix);
+        executor.setCorePoolSize(corePoolSize);
+        executor.setMaxPoolSize(Math.max(corePoolSize, maxPoolSize));
+        executor.setQueueCapacity(queueCapacity);
+        // Once the queue and pool are full the submitting thread runs the task itself, which slows
+        // producers down instead of dropping messages
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        return executor;
+    }
+
+    // One virtual thread per message, up to maxConcurrency at once. A handler blocked on Redis
+    // parks its virtual thread instead of holding a platform thread; the cap keeps a Redis stall
+    // from piling up an unbounded number of waiting handlers. Requires Java 21.
+    public static ThreadPoolTaskExecutor virtual(String threadNamePrefix, int maxConcurrency) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadFactory(new VirtualThreadTaskExecutor(threadNamePrefix).getVirtualThreadFactory());
+        executor.setCorePoolSize(maxConcurrency);
+        executor.setMaxPoolSize(maxConcurrency);
+        executor.setQueueCapacity(0);
+        executor.setKeepAliveSeconds(10);
+        executor.setAllowCoreThreadTimeOut(true);
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        return executor;
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.chat.config;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.server.HandshakeFailureException;
+import org.springframework.web.socket.server.RequestUpgradeStrategy;
+import org.springframework.web.socket.server.standard.StandardWebSocketUpgradeStrategy;
+import org.springframework.web.socket.server.support.DefaultHandshakeHandler;
+
+import java.security.Principal;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+
+// Handshakes of both STOMP endpoints. Tomcat accepts permessage-deflate whenever the client offers
+// it and reads the offer straight from the request, so turning compression off means hiding the
+// Sec-WebSocket-Extensions header rather than filtering Spring's list of extensions.
+public class DeflateHandshakeHandler extends DefaultHandshakeHandler {
+
+    private static final String EXTENSIONS_HEADER = "Sec-WebSocket-Extensions";
+
+    public DeflateHandshakeHandler(boolean deflate) {
+        super(deflate ? new StandardWebSocketUpgradeStrategy() : new WithoutExtensions(new StandardWebSocketUpgradeStrategy()));
+    }
+
+    // No other extensions are installed, so dropping the whole header only drops permessage-deflate
+    private static final class WithoutExtensions implements RequestUpgradeStrategy {
+
+        private final RequestUpgradeStrategy delegate;
+
+        WithoutExtensions(RequestUpgradeStrategy delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public String[] getSupportedVersions() {
+            return delegate.getSupportedVersions();
+        }
+
+        @Override
+        public List<WebSocketExtension> getSupportedExtensions(ServerHttpRequest request) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public void upgrade(ServerHttpRequest request, ServerHttpResponse response, String selectedProtocol,
+                            List<WebSocketExtension> selectedExtensions, Principal user,
+                            WebSocketHandler wsHandler, Map<String, Object> attributes) throws HandshakeFailureException {
+            if (request instanceof ServletServerHttpRequest servletRequest) {
+                request = new ServletServerHttpRequest(new HiddenExtensionsRequest(servletRequest.getServletRequest()));
+            }
+            delegate.upgrade(request, response, selectedProtocol, Collections.emptyList(), user, wsHandler, attributes);
+        }
+    }
+
+    private static final class HiddenExtensionsRequest extends HttpServletRequestWrapper {
+
+        HiddenExtensionsRequest(HttpServletRequest request) {
+            super(request);
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return EXTENSIONS_HEADER.equalsIgnoreCase(name) ? null : super.getHeader(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(String name) {
+            return EXTENSIONS_HEADER.equalsIgnoreCase(name) ? Collections.emptyEnumeration() : super.getHeaders(name);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.chat.config;
+
+import com.example.chat.service.IdGenerator;
+import com.example.chat.service.SnowflakeIdGenerator;
+import com.example.chat.service.UuidIdGenerator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.StringUtils;
+
+@Configuration
+public class IdGeneratorConfig {
+
+    @Bean
+    public IdGenerator idGenerator(@Value("${app.chat.id-generator:snowflake}") String name,
+                                   @Value("${app.chat.worker-id:}") String configuredWorkerId,
+                                   WorkerIdLease workerIdLease) {
+        if (UuidIdGenerator.NAME.equalsIgnoreCase(name)) {
+            return new UuidIdGenerator();
+        }
+        if (!SnowflakeIdGenerator.NAME.equalsIgnoreCase(name)) {
+            throw new IllegalArgumentException("Unknown id generator: " + name);
+        }
+        if (StringUtils.hasText(configuredWorkerId)) {
+            return new SnowflakeIdGenerator(Integer.parseInt(configuredWorkerId.trim()));
+        }
+        // Two nodes on the same worker id can issue the same id in the same millisecond, so an
+        // unconfigured node leases one in Redis instead of guessing
+        return new SnowflakeIdGenerator(workerIdLease.claim());
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.chat.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.util.UUID;
+
+@Component
+public class NodeIdentity {
+
+    private final String id;
+
+    public NodeIdentity(@Value("${app.chat.node-id:}") String configuredId) {
+        // Fall back to a random id so every instance is distinguishable even when unconfigured
+        this.id = StringUtils.hasText(configuredId) ? configuredId : UUID.randomUUID().toString();
+    }
+
+    public String getId() {
+        return id;
+    }
+}
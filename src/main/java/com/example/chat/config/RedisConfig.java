@@ -2,6 +2,8 @@ package com.example.chat.config;
 
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.SyncTaskExecutor;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.listener.RedisMessageListenerContainer;
@@ -32,6 +34,11 @@ public class RedisConfig {
     public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory) {
         RedisMessageListenerContainer container = new RedisMessageListenerContainer();
         container.setConnectionFactory(connectionFactory);
+
+        // Deliver on the subscription thread to keep per-channel ordering; listeners only enqueue
+        container.setTaskExecutor(new SyncTaskExecutor());
+        // Jedis subscribes with a call that blocks until unsubscribed, so it needs a thread of its own
+        container.setSubscriptionExecutor(new SimpleAsyncTaskExecutor("redis-subscription-"));
         return container;
     }
 }
@@ -0,0 +1,79 @@
+package com.example.chat.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// What happens to a WebSocket session whose client reads slower than messages arrive. Messages
+// queue in a per-session buffer while one send is in flight; once the buffer passes its limit the
+// session either loses its oldest queued frames or is disconnected. A single send that blocks past
+// the send time limit always disconnects, since dropping cannot unblock it.
+@Component
+public class SlowConsumerGuard {
+
+    public enum OverflowPolicy {
+        DROP_OLDEST,
+        DISCONNECT
+    }
+
+    private final OverflowPolicy policy;
+    private final AtomicLong bufferedBytes = new AtomicLong();
+    private final AtomicInteger openSessions = new AtomicInteger();
+    private final Counter droppedMessages;
+    private final Counter droppingSessions;
+    private final Counter disconnectedSessions;
+
+    @Autowired
+    public SlowConsumerGuard(MeterRegistry meterRegistry,
+                             @Value("${app.chat.websocket.overflow-policy:disconnect}") String policy) {
+        this.policy = OverflowPolicy.valueOf(policy.trim().replace('-', '_').toUpperCase(Locale.ROOT));
+
+        this.droppedMessages = Counter.builder("chat.websocket.overflow.dropped.messages")
+                .register(meterRegistry);
+        this.droppingSessions = Counter.builder("chat.websocket.overflow.sessions")
+                .tag("outcome", "dropped").register(meterRegistry);
+        this.disconnectedSessions = Counter.builder("chat.websocket.overflow.sessions")
+                .tag("outcome", "disconnected").register(meterRegistry);
+        Gauge.builder("chat.websocket.send.buffer", bufferedBytes, AtomicLong::get)
+                .baseUnit("bytes").register(meterRegistry);
+        Gauge.builder("chat.websocket.sessions", openSessions, AtomicInteger::get).register(meterRegistry);
+    }
+
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    public SlowConsumerSessionDecorator decorate(WebSocketSession session, int sendTimeLimit, int bufferSizeLimit) {
+        openSessions.incrementAndGet();
+        return new SlowConsumerSessionDecorator(session, sendTimeLimit, bufferSizeLimit, this);
+    }
+
+    public void closed(SlowConsumerSessionDecorator session) {
+        openSessions.decrementAndGet();
+        session.release();
+    }
+
+    void buffered(long bytes) {
+        bufferedBytes.addAndGet(bytes);
+    }
+
+    // firstForSession is true the first time a session overflows, so sessions are counted once
+    void dropped(int messages, boolean firstForSession) {
+        droppedMessages.increment(messages);
+        if (firstForSession) {
+            droppingSessions.increment();
+        }
+    }
+
+    void disconnected() {
+        disconnectedSessions.increment();
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.chat.config;
+
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.SessionLimitExceededException;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Same buffering as Spring's ConcurrentWebSocketSessionDecorator: the thread holding the flush lock
+// sends, everyone else queues and returns. Overflow follows the SlowConsumerGuard policy and is
+// counted there, which Spring's decorator gives no hook for.
+public class SlowConsumerSessionDecorator extends WebSocketSessionDecorator {
+
+    private final int sendTimeLimit;
+    private final int bufferSizeLimit;
+    private final SlowConsumerGuard guard;
+
+    private final Queue<WebSocketMessage<?>> buffer = new LinkedBlockingQueue<>();
+    private final AtomicInteger bufferSize = new AtomicInteger();
+    private final Lock flushLock = new ReentrantLock();
+    private final Lock limitLock = new ReentrantLock();
+
+    private volatile long sendStartTime;
+    private volatile boolean limitExceeded;
+    private volatile boolean closed;
+    private boolean overflowed;
+
+    SlowConsumerSessionDecorator(WebSocketSession delegate, int sendTimeLimit, int bufferSizeLimit,
+                                 SlowConsumerGuard guard) {
+        super(delegate);
+        this.sendTimeLimit = sendTimeLimit;
+        this.bufferSizeLimit = bufferSizeLimit;
+        this.guard = guard;
+    }
+
+    public int getBufferSize() {
+        return bufferSize.get();
+    }
+
+    @Override
+    public void sendMessage(WebSocketMessage<?> message) throws IOException {
+        if (shouldNotSend()) {
+            return;
+        }
+        buffer.add(message);
+        buffered(message.getPayloadLength());
+
+        do {
+            if (!tryFlushBuffer()) {
+                checkLimits();
+                break;
+            }
+        } while (!buffer.isEmpty() && !shouldNotSend());
+    }
+
+    @Override
+    public void close(CloseStatus status) throws IOException {
+        release();
+        super.close(status);
+    }
+
+    // Stops sending and gives back whatever is still queued; called once the connection is gone
+    void release() {
+        closed = true;
+        WebSocketMessage<?> message;
+        while ((message = buffer.poll()) != null) {
+            buffered(-message.getPayloadLength());
+        }
+    }
+
+    private boolean shouldNotSend() {
+        return limitExceeded || closed;
+    }
+
+    private boolean tryFlushBuffer() throws IOException {
+        if (!flushLock.tryLock()) {
+            return false;
+        }
+        try {
+            WebSocketMessage<?> message;
+            while (!shouldNotSend() && (message = buffer.poll()) != null) {
+                buffered(-message.getPayloadLength());
+                sendStartTime = System.currentTimeMillis();
+                getDelegate().sendMessage(message);
+                sendStartTime = 0;
+            }
+            return true;
+        } finally {
+            sendStartTime = 0;
+            flushLock.unlock();
+        }
+    }
+
+    private void checkLimits() {
+        if (shouldNotSend() || !limitLock.tryLock()) {
+            return;
+        }
+        try {
+            long sendStart = sendStartTime;
+            long sendTime = sendStart > 0 ? System.currentTimeMillis() - sendStart : 0;
+            if (sendTime > sendTimeLimit) {
+                disconnect("Send time " + sendTime + " (ms) for session '" + getId()
+                        + "' exceeded the allowed limit " + sendTimeLimit);
+            } else if (bufferSize.get() > bufferSizeLimit) {
+                if (guard.getPolicy() == SlowConsumerGuard.OverflowPolicy.DISCONNECT) {
+                    disconnect("Buffer size " + bufferSize.get() + " bytes for session '" + getId()
+                            + "' exceeds the allowed limit " + bufferSizeLimit);
+                } else {
+                    dropOldest();
+                }
+            }
+        } finally {
+            limitLock.unlock();
+        }
+    }
+
+    private void dropOldest() {
+        int dropped = 0;
+        while (bufferSize.get() > bufferSizeLimit) {
+            WebSocketMessage<?> message = buffer.poll();
+            if (message == null) {
+                break;
+            }
+            buffered(-message.getPayloadLength());
+            dropped++;
+        }
+        if (dropped > 0) {
+            guard.dropped(dropped, !overflowed);
+            overflowed = true;
+        }
+    }
+
+    // SubProtocolWebSocketHandler closes the session when it sees this exception
+    private void disconnect(String reason) {
+        limitExceeded = true;
+        guard.disconnected();
+        throw new SessionLimitExceededException(reason, CloseStatus.SESSION_NOT_RELIABLE);
+    }
+
+    private void buffered(int bytes) {
+        bufferSize.addAndGet(bytes);
+        guard.buffered(bytes);
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.chat.config;
+
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.SubscribableChannel;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.messaging.SubProtocolWebSocketHandler;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// SubProtocolWebSocketHandler whose sessions are decorated by SlowConsumerGuard instead of
+// Spring's ConcurrentWebSocketSessionDecorator
+public class SlowConsumerWebSocketHandler extends SubProtocolWebSocketHandler {
+
+    private final SlowConsumerGuard guard;
+    private final Map<String, SlowConsumerSessionDecorator> sessions = new ConcurrentHashMap<>();
+
+    public SlowConsumerWebSocketHandler(MessageChannel clientInboundChannel,
+                                        SubscribableChannel clientOutboundChannel,
+                                        SlowConsumerGuard guard) {
+        super(clientInboundChannel, clientOutboundChannel);
+        this.guard = guard;
+    }
+
+    @Override
+    protected WebSocketSession decorateSession(WebSocketSession session) {
+        SlowConsumerSessionDecorator decorated = guard.decorate(session, getSendTimeLimit(), getSendBufferSizeLimit());
+        sessions.put(session.getId(), decorated);
+        return decorated;
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+        SlowConsumerSessionDecorator decorated = sessions.remove(session.getId());
+        if (decorated != null) {
+            guard.closed(decorated);
+        }
+        super.afterConnectionClosed(session, closeStatus);
+    }
+}
@@ -1,29 +1,202 @@
 package com.example.chat.config;
 
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.core.env.Environment;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.SubscribableChannel;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.messaging.simp.config.StompBrokerRelayRegistration;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.util.StringUtils;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
+import org.springframework.web.socket.messaging.SubProtocolWebSocketHandler;
 
 @Configuration
 @EnableWebSocketMessageBroker
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
+    public static final String BROKER_MODE_SIMPLE = "simple";
+    public static final String BROKER_MODE_RELAY = "relay";
+
+    @Value("${app.chat.broker.mode:simple}")
+    private String brokerMode;
+
+    @Value("${app.chat.broker.heartbeat-ms:10000}")
+    private long heartbeatMillis;
+
+    @Value("${app.chat.broker.relay.host:localhost}")
+    private String relayHost;
+
+    @Value("${app.chat.broker.relay.port:61613}")
+    private int relayPort;
+
+    @Value("${app.chat.broker.relay.login:guest}")
+    private String relayLogin;
+
+    @Value("${app.chat.broker.relay.passcode:guest}")
+    private String relayPasscode;
+
+    @Value("${app.chat.broker.relay.virtual-host:}")
+    private String relayVirtualHost;
+
+    // Pool sizes of 0 mean two threads per CPU core; a max of 0 means the same as the pool size
+    @Value("${app.chat.broker.inbound-pool-size:0}")
+    private int inboundPoolSize;
+
+    @Value("${app.chat.broker.inbound-max-pool-size:0}")
+    private int inboundMaxPoolSize;
+
+    @Value("${app.chat.broker.inbound-queue-capacity:10000}")
+    private int inboundQueueCapacity;
+
+    @Value("${app.chat.broker.outbound-pool-size:0}")
+    private int outboundPoolSize;
+
+    @Value("${app.chat.broker.outbound-max-pool-size:0}")
+    private int outboundMaxPoolSize;
+
+    @Value("${app.chat.broker.outbound-queue-capacity:10000}")
+    private int outboundQueueCapacity;
+
+    @Value("${app.chat.websocket.send-time-limit-ms:10000}")
+    private int sendTimeLimitMillis;
+
+    @Value("${app.chat.websocket.send-buffer-size-limit:524288}")
+    private int sendBufferSizeLimit;
+
+    @Value("${app.chat.websocket.message-size-limit:65536}")
+    private int messageSizeLimit;
+
+    @Value("${app.chat.websocket.native-endpoint.enabled:true}")
+    private boolean nativeEndpointEnabled;
+
+    // Applies to the WebSocket handshakes of both endpoints; clients that do not offer it are unaffected
+    @Value("${app.chat.websocket.deflate.enabled:true}")
+    private boolean deflateEnabled;
+
+    // Upper bound on STOMP messages handled at once per channel when running on virtual threads
+    @Value("${app.chat.broker.virtual-max-concurrency:1000}")
+    private int virtualMaxConcurrency;
+
+    private final Environment environment;
+    private final BatchSubscriptions batchSubscriptions;
+
+    private TaskScheduler heartbeatScheduler;
+
+    @Autowired
+    public WebSocketConfig(Environment environment, BatchSubscriptions batchSubscriptions) {
+        this.environment = environment;
+        this.batchSubscriptions = batchSubscriptions;
+    }
+
+    @Autowired
+    public void setHeartbeatScheduler(@Lazy @Qualifier("messageBrokerTaskScheduler") TaskScheduler heartbeatScheduler) {
+        this.heartbeatScheduler = heartbeatScheduler;
+    }
+
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
-        // Enable simple broker for destinations prefixed with "/topic"
-        config.enableSimpleBroker("/topic");
+        if (BROKER_MODE_RELAY.equals(brokerMode)) {
+            // Subscriptions and fan-out live in an external STOMP broker (RabbitMQ, ActiveMQ, ...);
+            // this node forwards each message once and the broker delivers it to every subscriber
+            StompBrokerRelayRegistration relay = config.enableStompBrokerRelay("/topic", "/queue")
+                    .setRelayHost(relayHost)
+                    .setRelayPort(relayPort)
+                    .setClientLogin(relayLogin)
+                    .setClientPasscode(relayPasscode)
+                    .setSystemLogin(relayLogin)
+                    .setSystemPasscode(relayPasscode)
+                    .setSystemHeartbeatSendInterval(heartbeatMillis)
+                    .setSystemHeartbeatReceiveInterval(heartbeatMillis);
+            if (StringUtils.hasText(relayVirtualHost)) {
+                relay.setVirtualHost(relayVirtualHost);
+            }
+        } else if (BROKER_MODE_SIMPLE.equals(brokerMode)) {
+            // In-memory broker for a single node or development
+            config.enableSimpleBroker("/topic", "/queue")
+                    .setHeartbeatValue(new long[] {heartbeatMillis, heartbeatMillis})
+                    .setTaskScheduler(heartbeatScheduler);
+        } else {
+            throw new IllegalStateException("Unknown app.chat.broker.mode: " + brokerMode);
+        }
         
         // Messages with destinations prefixed with "/app" are routed to message-handling methods
         config.setApplicationDestinationPrefixes("/app");
+        // "/user/queue/..." reaches a single session, e.g. the catch-up replay after a reconnect
+        config.setUserDestinationPrefix("/user");
+    }
+
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        registration.taskExecutor(isVirtualThreads()
+                ? ChannelExecutors.virtual("clientInboundChannel-", virtualMaxConcurrency)
+                : ChannelExecutors.platform("clientInboundChannel-", inboundPoolSize, inboundMaxPoolSize, inboundQueueCapacity));
+        registration.interceptors(batchSubscriptions);
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        registration.taskExecutor(isVirtualThreads()
+                ? ChannelExecutors.virtual("clientOutboundChannel-", virtualMaxConcurrency)
+                : ChannelExecutors.platform("clientOutboundChannel-", outboundPoolSize, outboundMaxPoolSize, outboundQueueCapacity));
+    }
+
+    // Same switch Spring Boot uses for Tomcat: spring.threads.virtual.enabled on Java 21 or later
+    private boolean isVirtualThreads() {
+        return Threading.VIRTUAL.isActive(environment);
+    }
+
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        // Per session: how long one send may block, how much may queue behind it, largest inbound frame
+        registration.setSendTimeLimit(sendTimeLimitMillis)
+                .setSendBufferSizeLimit(sendBufferSizeLimit)
+                .setMessageSizeLimit(messageSizeLimit);
+    }
+
+    // Spring creates SubProtocolWebSocketHandler itself and only lets subclasses choose how sessions
+    // are decorated, so swap in the subclass that applies the slow consumer overflow policy
+    @Bean
+    public static BeanPostProcessor slowConsumerHandlerPostProcessor(BeanFactory beanFactory) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) {
+                if (bean.getClass() != SubProtocolWebSocketHandler.class) {
+                    return bean;
+                }
+                return new SlowConsumerWebSocketHandler(
+                        beanFactory.getBean("clientInboundChannel", MessageChannel.class),
+                        beanFactory.getBean("clientOutboundChannel", SubscribableChannel.class),
+                        beanFactory.getBean(SlowConsumerGuard.class));
+            }
+        };
     }
 
     @Override
     public void registerStompEndpoints(StompEndpointRegistry registry) {
-        // Register the "/ws" endpoint for WebSocket connections
+        DeflateHandshakeHandler handshakeHandler = new DeflateHandshakeHandler(deflateEnabled);
+        // Register the "/ws" endpoint for WebSocket connections, with SockJS fallbacks for legacy clients
         registry.addEndpoint("/ws")
+                .setHandshakeHandler(handshakeHandler)
                 .setAllowedOriginPatterns("*")
                 .withSockJS();
+        // Plain WebSocket without SockJS framing or HTTP fallbacks
+        if (nativeEndpointEnabled) {
+            registry.addEndpoint("/ws-native")
+                    .setHandshakeHandler(handshakeHandler)
+                    .setAllowedOriginPatterns("*");
+        }
     }
 }
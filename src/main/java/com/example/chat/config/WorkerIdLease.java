@@ -0,0 +1,82 @@
+package com.example.chat.config;
+
+import com.example.chat.service.SnowflakeIdGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+// Worker ids for nodes without app.chat.worker-id. A node claims the first free "chat:worker:{id}"
+// key in Redis, holding its node id with a TTL, and renews it while it runs, so two live nodes
+// never share an id and a stopped node's id comes free once its lease expires. Starting the search
+// at the node id's hash lets a node that restarts under a fixed node id take its old id back.
+@Component
+public class WorkerIdLease {
+
+    private static final Logger logger = LoggerFactory.getLogger(WorkerIdLease.class);
+
+    static final String KEY_PREFIX = "chat:worker:";
+
+    private static final RedisScript<Long> LEASE_SCRIPT =
+            RedisScript.of(new ClassPathResource("scripts/lease-worker-id.lua"), Long.class);
+
+    private final StringRedisTemplate redisTemplate;
+    private final NodeIdentity nodeIdentity;
+    private final long ttlMs;
+
+    private volatile int workerId = -1;
+
+    @Autowired
+    public WorkerIdLease(StringRedisTemplate redisTemplate, NodeIdentity nodeIdentity,
+                         @Value("${app.chat.worker-lease.ttl-ms:30000}") long ttlMs) {
+        this.redisTemplate = redisTemplate;
+        this.nodeIdentity = nodeIdentity;
+        this.ttlMs = ttlMs;
+    }
+
+    // Fails startup when Redis cannot be reached or every id is taken, rather than risk duplicates
+    public int claim() {
+        int ids = SnowflakeIdGenerator.MAX_WORKER_ID + 1;
+        int start = Math.floorMod(nodeIdentity.getId().hashCode(), ids);
+        for (int i = 0; i < ids; i++) {
+            int candidate = (start + i) % ids;
+            if (lease(candidate)) {
+                workerId = candidate;
+                logger.info("Claimed worker id {} for node {}", candidate, nodeIdentity.getId());
+                return candidate;
+            }
+        }
+        throw new IllegalStateException("All " + ids + " worker ids are leased by other nodes; "
+                + "set app.chat.worker-id or wait for stopped nodes' leases to expire");
+    }
+
+    // A lease lost during a Redis outage is taken back if no other node claimed the id meanwhile
+    @Scheduled(fixedDelayString = "${app.chat.worker-lease.renew-ms:10000}")
+    public void renew() {
+        int leased = workerId;
+        if (leased < 0) {
+            return;
+        }
+        try {
+            if (!lease(leased)) {
+                logger.error("Worker id {} was claimed by another node while this one held it; "
+                        + "the two nodes can issue duplicate ids until one restarts", leased);
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Could not renew the lease on worker id {}", leased, e);
+        }
+    }
+
+    private boolean lease(int id) {
+        Long result = redisTemplate.execute(LEASE_SCRIPT, List.of(KEY_PREFIX + id),
+                nodeIdentity.getId(), String.valueOf(ttlMs));
+        return result != null && result == 1;
+    }
+}
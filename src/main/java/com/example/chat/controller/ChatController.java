@@ -2,23 +2,47 @@ package com.example.chat.controller;
 
 import com.example.chat.model.ChatMessage;
 import com.example.chat.model.ChatRoom;
+import com.example.chat.model.CursorPage;
+import com.example.chat.model.RoomActivity;
 import com.example.chat.service.ChatService;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
 
 @RestController
 @RequestMapping("/api/chat")
 public class ChatController {
 
+    private static final Logger logger = LoggerFactory.getLogger(ChatController.class);
+
+    private static final int MAX_PAGE_SIZE = 500;
+    // Messages stored per pipelined write during bulk ingest
+    private static final int INGEST_BATCH_SIZE = 5000;
+
     private final ChatService chatService;
+    private final ObjectMapper objectMapper;
 
     @Autowired
-    public ChatController(ChatService chatService) {
+    public ChatController(ChatService chatService, ObjectMapper objectMapper) {
         this.chatService = chatService;
+        this.objectMapper = objectMapper;
     }
 
     @PostMapping("/rooms")
@@ -28,8 +52,32 @@ public class ChatController {
     }
 
     @GetMapping("/rooms")
-    public ResponseEntity<Set<String>> getAllRooms() {
-        Set<String> rooms = chatService.getAllRooms();
+    public ResponseEntity<CursorPage<String>> getAllRooms(@RequestParam(required = false) String cursor,
+                                                          @RequestParam(defaultValue = "50") int limit) {
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            return ResponseEntity.badRequest().build();
+        }
+        CursorPage<String> rooms = chatService.getRooms(cursor, limit);
+        return ResponseEntity.ok(rooms);
+    }
+
+    // Room details for a page of ids from GET /rooms; a body keeps 500 ids clear of URL length limits
+    @PostMapping("/rooms/batch")
+    public ResponseEntity<List<ChatRoom>> getRooms(@RequestBody List<String> roomIds) {
+        if (roomIds.size() > MAX_PAGE_SIZE) {
+            return ResponseEntity.badRequest().build();
+        }
+        List<ChatRoom> rooms = chatService.getRooms(roomIds);
+        return ResponseEntity.ok(rooms);
+    }
+
+    // Busiest rooms across all nodes by message rate over the activity window
+    @GetMapping("/rooms/trending")
+    public ResponseEntity<List<RoomActivity>> getTrendingRooms(@RequestParam(defaultValue = "10") int limit) {
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            return ResponseEntity.badRequest().build();
+        }
+        List<RoomActivity> rooms = chatService.getTrendingRooms(limit);
         return ResponseEntity.ok(rooms);
     }
 
@@ -49,33 +97,136 @@ public class ChatController {
     }
 
     @GetMapping("/rooms/{roomId}/messages")
-    public ResponseEntity<List<ChatMessage>> getMessageHistory(@PathVariable String roomId) {
-        List<ChatMessage> messages = chatService.getMessageHistory(roomId);
+    public ResponseEntity<CursorPage<ChatMessage>> getMessageHistory(@PathVariable String roomId,
+                                                                     @RequestParam(required = false) String before,
+                                                                     @RequestParam(required = false) String after,
+                                                                     @RequestParam(defaultValue = "20") int limit) {
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            return ResponseEntity.badRequest().build();
+        }
+        CursorPage<ChatMessage> messages = chatService.getMessageHistory(roomId, before, after, limit);
         return ResponseEntity.ok(messages);
     }
 
     @GetMapping("/rooms/{roomId}/users")
-    public ResponseEntity<Set<String>> getRoomUsers(@PathVariable String roomId) {
-        Set<String> users = chatService.getRoomUsers(roomId);
+    public ResponseEntity<CursorPage<String>> getRoomUsers(@PathVariable String roomId,
+                                                          @RequestParam(required = false) String cursor,
+                                                          @RequestParam(defaultValue = "100") int limit) {
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            return ResponseEntity.badRequest().build();
+        }
+        CursorPage<String> users = chatService.getRoomUsers(roomId, cursor, limit);
         return ResponseEntity.ok(users);
     }
 
     @GetMapping("/rooms/{roomId}/users/count")
     public ResponseEntity<Long> getRoomUserCount(@PathVariable String roomId) {
-        Long count = chatService.getRoomUserCount(roomId);
+        long count = chatService.getRoomUserCount(roomId);
         return ResponseEntity.ok(count);
     }
 
+    // The per-sender rate limit counts the caller's address, not the sender named in the body
     @PostMapping("/rooms/{roomId}/messages")
     public ResponseEntity<ChatMessage> sendMessage(@PathVariable String roomId,
-                                                  @RequestBody ChatMessage message) {
+                                                  @RequestBody ChatMessage message,
+                                                  HttpServletRequest request) {
         message.setRoomId(roomId);
         message.setType(ChatMessage.MessageType.CHAT);
-        chatService.sendMessage(message);
+        ChatMessage notice = chatService.submitMessage(message, "address:" + request.getRemoteAddr());
+        if (notice != null) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).body(notice);
+        }
         return ResponseEntity.ok(message);
     }
 
+    // Bulk ingest for bots and bridges: one ChatMessage per line (NDJSON), each naming its roomId.
+    // Lines are stored in batches as they are read, so an import is never held in memory whole.
+    // Lines that do not parse or lack a room or content are skipped and counted as rejected. If
+    // Redis fails, the import stops with 503 and "stored" tells how far it got.
+    @PostMapping(value = "/messages/bulk", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<IngestResult> ingestMessages(InputStream body) throws IOException {
+        IngestResult result = new IngestResult();
+        List<ChatMessage> batch = new ArrayList<>(INGEST_BATCH_SIZE);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                ChatMessage message = parseIngestLine(line);
+                if (message == null) {
+                    result.setRejected(result.getRejected() + 1);
+                    continue;
+                }
+                batch.add(message);
+                if (batch.size() == INGEST_BATCH_SIZE) {
+                    ingest(batch, result);
+                }
+            }
+            ingest(batch, result);
+        } catch (DataAccessException e) {
+            logger.warn("Bulk ingest stopped after {} messages", result.getStored(), e);
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(result);
+        }
+        return ResponseEntity.ok(result);
+    }
+
+    private ChatMessage parseIngestLine(String line) {
+        ChatMessage message;
+        try {
+            message = objectMapper.readValue(line, ChatMessage.class);
+        } catch (JsonProcessingException e) {
+            return null;
+        }
+        if (message.getRoomId() == null || message.getRoomId().isBlank() || message.getContent() == null) {
+            return null;
+        }
+        if (message.getType() == null) {
+            message.setType(ChatMessage.MessageType.CHAT);
+        }
+        if (message.getTimestamp() == null) {
+            message.setTimestamp(LocalDateTime.now());
+        }
+        return message;
+    }
+
+    private void ingest(List<ChatMessage> batch, IngestResult result) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        chatService.ingestMessages(batch);
+        result.setStored(result.getStored() + batch.size());
+        batch.clear();
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<Void> handleBadRequest(IllegalArgumentException e) {
+        return ResponseEntity.badRequest().build();
+    }
+
     // DTOs
+    public static class IngestResult {
+        private long stored;
+        private long rejected;
+
+        public long getStored() {
+            return stored;
+        }
+
+        public void setStored(long stored) {
+            this.stored = stored;
+        }
+
+        public long getRejected() {
+            return rejected;
+        }
+
+        public void setRejected(long rejected) {
+            this.rejected = rejected;
+        }
+    }
+
     public static class CreateRoomRequest {
         private String name;
         private String description;
@@ -1,14 +1,18 @@
 package com.example.chat.controller;
 
 import com.example.chat.model.ChatMessage;
+import com.example.chat.model.CursorPage;
 import com.example.chat.service.ChatService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
 import org.springframework.messaging.handler.annotation.DestinationVariable;
+import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
-import org.springframework.messaging.handler.annotation.SendTo;
 import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.annotation.SendToUser;
 import org.springframework.stereotype.Controller;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
 
 @Controller
 public class WebSocketController {
@@ -20,40 +24,45 @@ public class WebSocketController {
         this.chatService = chatService;
     }
 
+    // Broadcasting is done by ChatService, so the only thing returned is the notice for a message
+    // refused by the rate limits, which goes to the sending session on /user/queue/notices. The
+    // session, not the sender name in the payload, is what the per-sender limit counts.
     @MessageMapping("/chat.sendMessage/{roomId}")
-    @SendTo("/topic/room/{roomId}")
+    @SendToUser(destinations = "/queue/notices", broadcast = false)
     public ChatMessage sendMessage(@DestinationVariable String roomId,
-                                  @Payload ChatMessage chatMessage) {
+                                   @Payload ChatMessage chatMessage,
+                                   SimpMessageHeaderAccessor headerAccessor) {
         chatMessage.setRoomId(roomId);
         chatMessage.setType(ChatMessage.MessageType.CHAT);
-        chatService.sendMessage(chatMessage);
-        return chatMessage;
+        return chatService.submitMessage(chatMessage, "session:" + headerAccessor.getSessionId());
     }
 
+    // A client reconnecting after a blip names the last message it saw in a "last-seen-id" header
+    // and gets what it missed on /user/queue/replay; the broadcast join notice goes out as usual
     @MessageMapping("/chat.joinRoom/{roomId}")
-    @SendTo("/topic/room/{roomId}")
-    public ChatMessage joinRoom(@DestinationVariable String roomId,
-                               @Payload ChatMessage chatMessage,
-                               SimpMessageHeaderAccessor headerAccessor) {
+    @SendToUser(destinations = "/queue/replay", broadcast = false)
+    public CursorPage<ChatMessage> joinRoom(@DestinationVariable String roomId,
+                                            @Payload ChatMessage chatMessage,
+                                            @Header(name = "last-seen-id", required = false) String lastSeenId,
+                                            SimpMessageHeaderAccessor headerAccessor) {
         
         // Store username in WebSocket session
         headerAccessor.getSessionAttributes().put("username", chatMessage.getSender());
         headerAccessor.getSessionAttributes().put("roomId", roomId);
         
-        chatMessage.setRoomId(roomId);
-        chatMessage.setType(ChatMessage.MessageType.JOIN);
-        chatService.joinRoom(roomId, chatMessage.getSender());
-        
-        return chatMessage;
+        chatService.joinRoom(roomId, chatMessage.getSender(), headerAccessor.getSessionId());
+        return lastSeenId != null ? chatService.catchUp(roomId, lastSeenId) : null;
     }
 
     @MessageMapping("/chat.leaveRoom/{roomId}")
-    @SendTo("/topic/room/{roomId}")
-    public ChatMessage leaveRoom(@DestinationVariable String roomId,
-                                @Payload ChatMessage chatMessage) {
-        chatMessage.setRoomId(roomId);
-        chatMessage.setType(ChatMessage.MessageType.LEAVE);
-        chatService.leaveRoom(roomId, chatMessage.getSender());
-        return chatMessage;
+    public void leaveRoom(@DestinationVariable String roomId,
+                          @Payload ChatMessage chatMessage,
+                          SimpMessageHeaderAccessor headerAccessor) {
+        chatService.leaveRoom(roomId, chatMessage.getSender(), headerAccessor.getSessionId());
+    }
+
+    @EventListener
+    public void handleSessionDisconnect(SessionDisconnectEvent event) {
+        chatService.disconnect(event.getSessionId());
     }
 }
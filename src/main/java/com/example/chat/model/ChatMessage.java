@@ -1,6 +1,7 @@
 package com.example.chat.model;
 
 import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import java.time.LocalDateTime;
 
 public class ChatMessage {
@@ -14,6 +15,10 @@ public class ChatMessage {
     @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
     private LocalDateTime timestamp;
     
+    // Set on SYSTEM notices only: the id of the message that could not be delivered
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String failedId;
+    
     public enum MessageType {
         CHAT,
         JOIN,
@@ -83,6 +88,14 @@ public class ChatMessage {
         this.timestamp = timestamp;
     }
     
+    public String getFailedId() {
+        return failedId;
+    }
+    
+    public void setFailedId(String failedId) {
+        this.failedId = failedId;
+    }
+    
     @Override
     public String toString() {
         return "ChatMessage{" +
@@ -0,0 +1,55 @@
+package com.example.chat.model;
+
+import java.util.List;
+
+public class CursorPage<T> {
+
+    private List<T> items;
+    private String nextCursor;
+    private String prevCursor;
+
+    // Constructors
+    public CursorPage() {
+    }
+
+    public CursorPage(List<T> items, String nextCursor) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+    }
+
+    // Getters and Setters
+    public List<T> getItems() {
+        return items;
+    }
+
+    public void setItems(List<T> items) {
+        this.items = items;
+    }
+
+    // Null when there are no further pages
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
+    // Cursor for paging in the opposite direction, when the listing supports it
+    public String getPrevCursor() {
+        return prevCursor;
+    }
+
+    public void setPrevCursor(String prevCursor) {
+        this.prevCursor = prevCursor;
+    }
+
+    @Override
+    public String toString() {
+        return "CursorPage{" +
+                "items=" + items +
+                ", nextCursor='" + nextCursor + '\'' +
+                ", prevCursor='" + prevCursor + '\'' +
+                '}';
+    }
+}
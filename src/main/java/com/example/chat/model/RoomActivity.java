@@ -0,0 +1,64 @@
+package com.example.chat.model;
+
+public class RoomActivity {
+
+    private String roomId;
+    private String name;
+    private long messages;
+    private double messagesPerSecond;
+
+    // Constructors
+    public RoomActivity() {
+    }
+
+    public RoomActivity(String roomId, String name, long messages, double messagesPerSecond) {
+        this.roomId = roomId;
+        this.name = name;
+        this.messages = messages;
+        this.messagesPerSecond = messagesPerSecond;
+    }
+
+    // Getters and Setters
+    public String getRoomId() {
+        return roomId;
+    }
+
+    public void setRoomId(String roomId) {
+        this.roomId = roomId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    // Chat messages sent to the room, across all nodes, within the activity window
+    public long getMessages() {
+        return messages;
+    }
+
+    public void setMessages(long messages) {
+        this.messages = messages;
+    }
+
+    public double getMessagesPerSecond() {
+        return messagesPerSecond;
+    }
+
+    public void setMessagesPerSecond(double messagesPerSecond) {
+        this.messagesPerSecond = messagesPerSecond;
+    }
+
+    @Override
+    public String toString() {
+        return "RoomActivity{" +
+                "roomId='" + roomId + '\'' +
+                ", name='" + name + '\'' +
+                ", messages=" + messages +
+                ", messagesPerSecond=" + messagesPerSecond +
+                '}';
+    }
+}
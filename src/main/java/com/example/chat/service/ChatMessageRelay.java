@@ -0,0 +1,166 @@
+package com.example.chat.service;
+
+import com.example.chat.config.NodeIdentity;
+import com.example.chat.config.WebSocketConfig;
+import com.example.chat.model.ChatMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+@Component
+public class ChatMessageRelay implements MessageListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChatMessageRelay.class);
+
+    public static final String ROOM_CHANNEL_PREFIX = "chat:room:";
+
+    private final RedisService redisService;
+    private final MessageDispatcher messageDispatcher;
+    private final MessageCodecs messageCodecs;
+    private final NodeIdentity nodeIdentity;
+    private final HistoryCache historyCache;
+    private final int batchSize;
+    private final String brokerMode;
+
+    private final BlockingQueue<Message> pending;
+    private final Counter dropped;
+    private volatile boolean overflowing;
+    private volatile boolean running;
+    private Thread dispatcher;
+
+    @Autowired
+    public ChatMessageRelay(RedisService redisService,
+                            MessageDispatcher messageDispatcher,
+                            MessageCodecs messageCodecs,
+                            NodeIdentity nodeIdentity,
+                            HistoryCache historyCache,
+                            MeterRegistry meterRegistry,
+                            @Value("${app.chat.relay.batch-size:256}") int batchSize,
+                            @Value("${app.chat.relay.queue-batches:64}") int queueBatches,
+                            @Value("${app.chat.broker.mode:simple}") String brokerMode) {
+        this.redisService = redisService;
+        this.messageDispatcher = messageDispatcher;
+        this.messageCodecs = messageCodecs;
+        this.nodeIdentity = nodeIdentity;
+        this.historyCache = historyCache;
+        this.batchSize = batchSize;
+        this.brokerMode = brokerMode;
+        this.pending = new ArrayBlockingQueue<>(batchSize * queueBatches);
+        this.dropped = Counter.builder("chat.relay.dropped").register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        dispatcher = new Thread(this::dispatchLoop, "chat-relay-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+        redisService.subscribe(ROOM_CHANNEL_PREFIX + "*", this);
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (dispatcher != null) {
+            dispatcher.interrupt();
+        }
+    }
+
+    // Called on the subscription thread; keep it cheap and defer decoding to the dispatcher.
+    // Blocking here would stall the Redis connection, so a full queue drops its oldest frames:
+    // the newest messages are the ones still worth delivering, and a skipped position makes
+    // the history cache drop the room instead of serving a hole.
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        while (!pending.offer(message)) {
+            if (pending.poll() != null) {
+                dropped.increment();
+                if (!overflowing) {
+                    overflowing = true;
+                    logger.warn("Relay queue full, dropping the oldest relayed messages");
+                }
+            }
+        }
+    }
+
+    private void dispatchLoop() {
+        List<Message> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                Message first = pending.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                pending.drainTo(batch, batchSize - 1);
+                if (overflowing && pending.isEmpty()) {
+                    overflowing = false;
+                    logger.info("Relay queue drained");
+                }
+                dispatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    void dispatch(List<Message> batch) {
+        for (Message message : batch) {
+            RelayFrame frame;
+            try {
+                frame = RelayFrame.decode(message.getBody());
+            } catch (IllegalArgumentException e) {
+                logger.warn("Dropping malformed relay message", e);
+                continue;
+            }
+
+            // Our own messages were already delivered locally when they were sent
+            if (nodeIdentity.getId().equals(frame.getOrigin())) {
+                continue;
+            }
+
+            String channel = new String(message.getChannel(), StandardCharsets.UTF_8);
+            String roomId = channel.substring(ROOM_CHANNEL_PREFIX.length());
+            // A recreated room starts again at position 1, so the old window must not survive
+            if (frame.isRoomDeleted()) {
+                historyCache.invalidate(roomId);
+                continue;
+            }
+            // With an external broker every node's subscribers already got it from the broker
+            if (!WebSocketConfig.BROKER_MODE_RELAY.equals(brokerMode)) {
+                for (byte[] payload : frame.getPayloads()) {
+                    messageDispatcher.deliverLocally(roomId, messageCodecs.toJson(payload));
+                }
+            }
+
+            // Keeps this node's cached copy of the room in step; a skipped position drops the entry
+            if (historyCache.contains(roomId)) {
+                List<ChatMessage> decoded = new ArrayList<>(frame.getPayloads().size());
+                List<Integer> sizes = new ArrayList<>(frame.getPayloads().size());
+                for (byte[] payload : frame.getPayloads()) {
+                    decoded.add(messageCodecs.decode(payload));
+                    sizes.add(payload.length);
+                }
+                historyCache.append(roomId, frame.getPosition(), decoded, sizes);
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.chat.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.MultiGauge;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+// Meters for the chat hot paths:
+//   chat.send              sendMessage until the message is stored and relayed (outcome)
+//   chat.redis             one Redis operation (operation, outcome); "save" also covers the publish,
+//                          which runs in the same script call
+//   chat.message.bytes     size of encoded messages (direction encode / decode)
+//   chat.room.messages.rate messages/s sent through this node for its busiest rooms (room)
+// Only the top rooms of each interval get a room tag, so cardinality stays bounded.
+@Component
+public class ChatMetrics {
+
+    private final MeterRegistry meterRegistry;
+    private final int topRooms;
+    private final Timer sendStored;
+    private final Timer sendFailed;
+    private final DistributionSummary encodedBytes;
+    private final DistributionSummary decodedBytes;
+    private final MultiGauge roomRates;
+    private final Map<String, Timer> redisTimers = new ConcurrentHashMap<>();
+
+    // Messages per room since the last publishRoomRates; swapped out whole on each publish
+    private final AtomicReference<Map<String, LongAdder>> roomMessages = new AtomicReference<>(new ConcurrentHashMap<>());
+    private volatile long roomWindowStart = System.nanoTime();
+
+    @Autowired
+    public ChatMetrics(MeterRegistry meterRegistry, @Value("${app.chat.metrics.top-rooms:10}") int topRooms) {
+        this.meterRegistry = meterRegistry;
+        this.topRooms = topRooms;
+        this.sendStored = Timer.builder("chat.send").tag("outcome", "stored").register(meterRegistry);
+        this.sendFailed = Timer.builder("chat.send").tag("outcome", "failed").register(meterRegistry);
+        this.encodedBytes = DistributionSummary.builder("chat.message.bytes").tag("direction", "encode")
+                .baseUnit("bytes").register(meterRegistry);
+        this.decodedBytes = DistributionSummary.builder("chat.message.bytes").tag("direction", "decode")
+                .baseUnit("bytes").register(meterRegistry);
+        this.roomRates = MultiGauge.builder("chat.room.messages.rate").register(meterRegistry);
+    }
+
+    // startNanos is System.nanoTime() when sendMessage was called
+    public void messageSent(String roomId, long startNanos, boolean stored) {
+        (stored ? sendStored : sendFailed).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        roomMessages.get().computeIfAbsent(roomId, id -> new LongAdder()).increment();
+    }
+
+    public <T> T timeRedis(String operation, Supplier<T> call) {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            T result = call.get();
+            success = true;
+            return result;
+        } finally {
+            recordRedis(operation, start, success);
+        }
+    }
+
+    public void timeRedis(String operation, Runnable call) {
+        timeRedis(operation, () -> {
+            call.run();
+            return null;
+        });
+    }
+
+    // For operations that complete asynchronously
+    public void recordRedis(String operation, long startNanos, boolean success) {
+        String key = success ? operation : operation + "#error";
+        redisTimers.computeIfAbsent(key, k -> Timer.builder("chat.redis")
+                        .tag("operation", operation)
+                        .tag("outcome", success ? "success" : "error")
+                        .register(meterRegistry))
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void encoded(int bytes) {
+        encodedBytes.record(bytes);
+    }
+
+    public void decoded(int bytes) {
+        decodedBytes.record(bytes);
+    }
+
+    // Replaces the room rate rows with the busiest rooms of the interval since the last call;
+    // rooms that dropped out of the top lose their row
+    @Scheduled(fixedDelayString = "${app.chat.metrics.room-rate-interval-ms:10000}")
+    public void publishRoomRates() {
+        long now = System.nanoTime();
+        double seconds = Math.max(1, now - roomWindowStart) / 1e9;
+        roomWindowStart = now;
+        Map<String, LongAdder> counts = roomMessages.getAndSet(new ConcurrentHashMap<>());
+
+        List<Map.Entry<String, Long>> busiest = new ArrayList<>(counts.size());
+        counts.forEach((roomId, count) -> busiest.add(Map.entry(roomId, count.sum())));
+        busiest.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+
+        List<MultiGauge.Row<?>> rows = new ArrayList<>(Math.min(topRooms, busiest.size()));
+        for (Map.Entry<String, Long> room : busiest.subList(0, Math.min(topRooms, busiest.size()))) {
+            rows.add(MultiGauge.Row.of(Tags.of("room", room.getKey()), room.getValue() / seconds));
+        }
+        roomRates.register(rows, true);
+    }
+}
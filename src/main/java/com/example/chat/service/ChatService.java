@@ -2,28 +2,51 @@ package com.example.chat.service;
 
 import com.example.chat.model.ChatMessage;
 import com.example.chat.model.ChatRoom;
+import com.example.chat.model.CursorPage;
+import com.example.chat.model.RoomActivity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
-import java.util.Set;
-import java.util.UUID;
 
 @Service
 public class ChatService {
 
+    private static final Logger logger = LoggerFactory.getLogger(ChatService.class);
+
+    // Most messages replayed to a reconnecting client; it pages on with the "after" cursor
+    private static final int CATCH_UP_LIMIT = 200;
+
     private final RedisService redisService;
-    private final SimpMessagingTemplate messagingTemplate;
+    private final MessageDispatcher messageDispatcher;
+    private final PresenceTracker presenceTracker;
+    private final RoomUserCounts roomUserCounts;
+    private final IdGenerator idGenerator;
+    private final ChatMetrics chatMetrics;
+    private final SendRateLimiter sendRateLimiter;
+    private final RoomActivityTracker roomActivityTracker;
 
     @Autowired
-    public ChatService(RedisService redisService, SimpMessagingTemplate messagingTemplate) {
+    public ChatService(RedisService redisService, MessageDispatcher messageDispatcher,
+                       PresenceTracker presenceTracker, RoomUserCounts roomUserCounts,
+                       IdGenerator idGenerator, ChatMetrics chatMetrics, SendRateLimiter sendRateLimiter,
+                       RoomActivityTracker roomActivityTracker) {
         this.redisService = redisService;
-        this.messagingTemplate = messagingTemplate;
+        this.messageDispatcher = messageDispatcher;
+        this.presenceTracker = presenceTracker;
+        this.roomUserCounts = roomUserCounts;
+        this.idGenerator = idGenerator;
+        this.chatMetrics = chatMetrics;
+        this.sendRateLimiter = sendRateLimiter;
+        this.roomActivityTracker = roomActivityTracker;
     }
 
     public ChatRoom createRoom(String name, String description) {
-        String roomId = UUID.randomUUID().toString();
+        String roomId = idGenerator.nextId();
         ChatRoom room = new ChatRoom(roomId, name, description);
         redisService.createRoom(room);
         return room;
@@ -33,31 +56,115 @@ public class ChatService {
         return redisService.getRoom(roomId);
     }
 
-    public Set<String> getAllRooms() {
-        return redisService.getAllRooms();
+    public CursorPage<String> getRooms(String cursor, int limit) {
+        return redisService.getRooms(cursor, limit);
+    }
+
+    public List<ChatRoom> getRooms(Collection<String> roomIds) {
+        return redisService.getRooms(roomIds);
     }
 
     public void deleteRoom(String roomId) {
         redisService.deleteRoom(roomId);
     }
 
+    public List<RoomActivity> getTrendingRooms(int limit) {
+        return roomActivityTracker.getTrendingRooms(limit);
+    }
+
+    // Messages from clients come in here; join and leave notices skip the rate limits. client names
+    // the connection the message came from and is what the per-sender limit counts. A message whose
+    // sender or room is over its limit is neither stored nor broadcast, and the SYSTEM notice
+    // returned for it is meant for the sender alone. Returns null when the message was sent.
+    public ChatMessage submitMessage(ChatMessage message, String client) {
+        SendRateLimiter.Decision decision = sendRateLimiter.tryAcquire(client, message.getRoomId());
+        if (decision == SendRateLimiter.Decision.ALLOWED) {
+            sendMessage(message);
+            return null;
+        }
+        return new ChatMessage(
+            decision == SendRateLimiter.Decision.SENDER_LIMITED
+                ? "Message not sent: you are sending messages too fast"
+                : "Message not sent: this room is too busy right now",
+            "System",
+            message.getRoomId(),
+            ChatMessage.MessageType.SYSTEM
+        );
+    }
+
     public void sendMessage(ChatMessage message) {
-        // Save message to Redis
-        redisService.saveMessage(message);
-        
-        // Broadcast message to WebSocket subscribers
-        messagingTemplate.convertAndSend("/topic/room/" + message.getRoomId(), message);
-        
-        // Also publish to Redis pub/sub for scaling across multiple instances
-        redisService.publishMessage("chat:room:" + message.getRoomId(), message);
+        long start = System.nanoTime();
+        byte[] encoded = redisService.encodeMessage(message);
+
+        // Local subscribers get the message right away; storing it and relaying it to the other
+        // instances happen together in the background
+        messageDispatcher.dispatch(message, encoded);
+        redisService.saveMessage(message, encoded).whenComplete((position, error) -> {
+            chatMetrics.messageSent(message.getRoomId(), start, error == null);
+            if (error != null) {
+                reportFailedMessage(message, error);
+            } else if (message.getType() == ChatMessage.MessageType.CHAT) {
+                roomActivityTracker.messageSent(message.getRoomId());
+            }
+        });
+    }
+
+    // Bulk ingest for bots and bridges: one batch of messages across any number of rooms, stored with
+    // one pipelined script call per room, each trimming once and relaying the room's messages to the
+    // other nodes in a single frame. Local subscribers get them once they are stored. Rate limits do
+    // not apply. Throws if the batch could not be stored.
+    public void ingestMessages(List<ChatMessage> messages) {
+        List<byte[]> encoded = new ArrayList<>(messages.size());
+        for (ChatMessage message : messages) {
+            encoded.add(redisService.encodeMessage(message));
+        }
+        redisService.saveMessages(messages, encoded);
+        for (int i = 0; i < messages.size(); i++) {
+            ChatMessage message = messages.get(i);
+            messageDispatcher.dispatch(message, encoded.get(i));
+            if (message.getType() == ChatMessage.MessageType.CHAT) {
+                roomActivityTracker.messageSent(message.getRoomId());
+            }
+        }
+    }
+
+    // The message was shown here but never stored or relayed. The notice has an id of its own,
+    // since clients already saw the failed one, and names the failed message in failedId so
+    // clients can mark it as not delivered.
+    private void reportFailedMessage(ChatMessage message, Throwable error) {
+        logger.warn("Could not save message {} in room {}", message.getId(), message.getRoomId(), error);
+        ChatMessage notice = new ChatMessage(
+            "Message from " + message.getSender() + " could not be delivered",
+            "System",
+            message.getRoomId(),
+            ChatMessage.MessageType.SYSTEM
+        );
+        notice.setId(idGenerator.nextId());
+        notice.setFailedId(message.getId());
+        messageDispatcher.deliverLocally(notice);
     }
 
     public List<ChatMessage> getMessageHistory(String roomId) {
         return redisService.getMessageHistory(roomId);
     }
 
-    public void joinRoom(String roomId, String username) {
-        redisService.addUserToRoom(roomId, username);
+    public CursorPage<ChatMessage> getMessageHistory(String roomId, String before, String after, int limit) {
+        return redisService.getMessageHistory(roomId, before, after, limit);
+    }
+
+    // Messages a reconnecting client missed since lastSeenId. When that message is no longer known
+    // the client gets the latest page instead and can page back from there; either way it drops
+    // messages whose ids it already has.
+    public CursorPage<ChatMessage> catchUp(String roomId, String lastSeenId) {
+        CursorPage<ChatMessage> missed = redisService.getMessagesSince(roomId, lastSeenId, CATCH_UP_LIMIT);
+        return missed != null ? missed : redisService.getMessageHistory(roomId, null, null, CATCH_UP_LIMIT);
+    }
+
+    // Another tab of a user already in the room joins silently
+    public void joinRoom(String roomId, String username, String sessionId) {
+        if (!presenceTracker.join(sessionId, roomId, username)) {
+            return;
+        }
         
         // Send join notification
         ChatMessage joinMessage = new ChatMessage(
@@ -70,10 +177,19 @@ public class ChatService {
         sendMessage(joinMessage);
     }
 
-    public void leaveRoom(String roomId, String username) {
-        redisService.removeUserFromRoom(roomId, username);
-        
-        // Send leave notification
+    public void leaveRoom(String roomId, String username, String sessionId) {
+        if (presenceTracker.leave(sessionId, roomId, username)) {
+            sendLeaveMessage(roomId, username);
+        }
+    }
+
+    // A closed connection (tab closed, network lost, missed STOMP heartbeats) leaves every room
+    // the session joined
+    public void disconnect(String sessionId) {
+        presenceTracker.disconnect(sessionId).forEach(this::sendLeaveMessage);
+    }
+
+    private void sendLeaveMessage(String roomId, String username) {
         ChatMessage leaveMessage = new ChatMessage(
             username + " left the room",
             "System",
@@ -84,11 +200,11 @@ public class ChatService {
         sendMessage(leaveMessage);
     }
 
-    public Set<String> getRoomUsers(String roomId) {
-        return redisService.getRoomUsers(roomId);
+    public CursorPage<String> getRoomUsers(String roomId, String cursor, int limit) {
+        return redisService.getRoomUsers(roomId, cursor, limit);
     }
 
-    public Long getRoomUserCount(String roomId) {
-        return redisService.getRoomUserCount(roomId);
+    public long getRoomUserCount(String roomId) {
+        return roomUserCounts.get(roomId);
     }
 }
@@ -0,0 +1,534 @@
+package com.example.chat.service;
+
+import com.example.chat.config.NodeIdentity;
+import com.example.chat.model.ChatMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Cold tier of room history. Messages the append scripts trim from Redis are handed over here in
+// blocks of at least app.chat.archive.batch and written to append-only segment files on disk:
+//
+//   {dir}/{room}/{first position}-{node}.seg   blocks: raw length (int), deflated entries
+//   {dir}/{room}/{first position}-{node}.idx   one 32 byte record per block: first position,
+//                                              first timestamp, offset, block length, entry count
+//
+// Entries inside a block are length-prefixed encoded messages at consecutive positions. The index is
+// sparse (one record per block) and is binary searched through a memory mapping, as is the block
+// itself, so a page costs one or two block inflates. Only the archiver thread writes, and each node
+// writes its own files. A block exists only in the directory of the node that trimmed it, so with
+// several nodes the directory must be shared (e.g. a network volume): a node that cannot see another
+// node's files finds gaps, counted as chat.archive.gaps. A segment is written block first, index
+// record second, so a torn write is never referenced.
+//
+// Reads keep the mapped segments of recently read rooms. A node writes only to its newest segment
+// in a room, so all older ones are immutable and stay mapped; the directory is listed again, and
+// each node's newest segment re-mapped, only when a read misses.
+@Component
+public class HistoryArchive {
+
+    private static final Logger logger = LoggerFactory.getLogger(HistoryArchive.class);
+
+    private static final int INDEX_RECORD_BYTES = 32;
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String INDEX_SUFFIX = ".idx";
+
+    private final MessageCodecs messageCodecs;
+    private final boolean enabled;
+    private final Path directory;
+    private final String nodeName;
+    private final int batch;
+    private final long segmentBytes;
+
+    // Only touched by the archiver thread
+    private final Map<String, SegmentWriter> writers = new HashMap<>();
+    private final Deflater deflater = new Deflater();
+    private final ThreadPoolExecutor archiver;
+
+    private final Counter written;
+    private final Counter read;
+    private final Counter dropped;
+    private final Counter gaps;
+
+    // Room id -> its segments, oldest first, for the mapped-rooms most recently read rooms
+    private final Map<String, List<Segment>> mappedRooms;
+
+    @Autowired
+    public HistoryArchive(MessageCodecs messageCodecs, NodeIdentity nodeIdentity, MeterRegistry meterRegistry,
+                          @Value("${app.chat.archive.enabled:false}") boolean enabled,
+                          @Value("${app.chat.archive.dir:data/archive}") String directory,
+                          @Value("${app.chat.archive.batch:100}") int batch,
+                          @Value("${app.chat.archive.segment-bytes:8388608}") long segmentBytes,
+                          @Value("${app.chat.archive.queue-capacity:10000}") int queueCapacity,
+                          @Value("${app.chat.archive.mapped-rooms:1000}") int mappedRoomsLimit) {
+        this.messageCodecs = messageCodecs;
+        this.enabled = enabled;
+        this.directory = Paths.get(directory);
+        this.nodeName = fileName(nodeIdentity.getId());
+        this.batch = Math.max(1, batch);
+        this.segmentBytes = segmentBytes;
+        this.archiver = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "chat-history-archiver");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+        this.written = Counter.builder("chat.archive.messages").tag("operation", "write").register(meterRegistry);
+        this.read = Counter.builder("chat.archive.messages").tag("operation", "read").register(meterRegistry);
+        this.dropped = Counter.builder("chat.archive.dropped").register(meterRegistry);
+        this.gaps = Counter.builder("chat.archive.gaps").register(meterRegistry);
+        this.mappedRooms = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<Segment>> eldest) {
+                return size() > mappedRoomsLimit;
+            }
+        });
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Messages past the history limit that Redis keeps before trimming them all in one block; 0 tells
+    // the append scripts to trim as they always did
+    public int getBatch() {
+        return enabled ? batch : 0;
+    }
+
+    // Queues entries trimmed at consecutive positions from firstPosition. Never blocks: this runs on
+    // the history writer or on a Redis I/O thread, so a full queue drops the block instead.
+    public void archive(String roomId, long firstPosition, List<byte[]> entries) {
+        try {
+            archiver.execute(() -> write(roomId, firstPosition, entries));
+        } catch (RejectedExecutionException e) {
+            dropped.increment(entries.size());
+            logger.error("Archive queue full, dropped messages {}..{} of room {}",
+                    firstPosition, firstPosition + entries.size() - 1, roomId);
+        }
+    }
+
+    // Removes the room's archive after the room itself was deleted, behind any queued writes
+    public void delete(String roomId) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            archiver.execute(() -> {
+                writers.remove(roomId);
+                Path roomDirectory = directory.resolve(fileName(roomId));
+                try (Stream<Path> files = Files.list(roomDirectory)) {
+                    for (Path file : (Iterable<Path>) files::iterator) {
+                        Files.deleteIfExists(file);
+                    }
+                    Files.deleteIfExists(roomDirectory);
+                } catch (NoSuchFileException e) {
+                    // Nothing was archived
+                } catch (IOException e) {
+                    logger.warn("Could not delete the archive of room {}", roomId, e);
+                }
+                mappedRooms.remove(roomId);
+            });
+        } catch (RejectedExecutionException e) {
+            logger.warn("Archive queue full, archive of deleted room {} was left on disk", roomId);
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        // Let queued blocks reach the disk on a clean shutdown
+        archiver.shutdown();
+        archiver.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    // Up to limit archived messages ending at position to, oldest first, or null when the archive
+    // does not hold position to. Stops early at a gap.
+    public HistorySlice readBefore(String roomId, long to, int limit) {
+        RoomReader reader = new RoomReader(roomId);
+        List<byte[]> newestFirst = new ArrayList<>();
+        long position = to;
+        while (newestFirst.size() < limit && position >= 1) {
+            Block block = reader.find(position);
+            if (block == null) {
+                break;
+            }
+            List<byte[]> entries = block.entries();
+            for (int i = (int) (position - block.firstPosition); i >= 0 && newestFirst.size() < limit; i--) {
+                newestFirst.add(entries.get(i));
+            }
+            position = block.firstPosition - 1;
+        }
+        if (newestFirst.isEmpty()) {
+            return null;
+        }
+        Collections.reverse(newestFirst);
+        return slice(reader.segments, to - newestFirst.size() + 1, newestFirst);
+    }
+
+    // Up to limit archived messages starting at position from, or null when the archive does not
+    // hold position from. Stops early at a gap.
+    public HistorySlice readAfter(String roomId, long from, int limit) {
+        RoomReader reader = new RoomReader(roomId);
+        List<byte[]> entries = new ArrayList<>();
+        long position = from;
+        while (entries.size() < limit) {
+            Block block = reader.find(position);
+            if (block == null) {
+                break;
+            }
+            List<byte[]> blockEntries = block.entries();
+            for (int i = (int) (position - block.firstPosition); i < blockEntries.size() && entries.size() < limit; i++) {
+                entries.add(blockEntries.get(i));
+            }
+            position = block.firstPosition + blockEntries.size();
+        }
+        return entries.isEmpty() ? null : slice(reader.segments, from, entries);
+    }
+
+    private HistorySlice slice(List<Segment> segments, long from, List<byte[]> entries) {
+        List<ChatMessage> messages = new ArrayList<>(entries.size());
+        for (byte[] entry : entries) {
+            messages.add(messageCodecs.decode(entry));
+        }
+        read.increment(messages.size());
+        // The oldest segment starts with the oldest archived message
+        return new HistorySlice(segments.get(0).firstPosition, from, messages);
+    }
+
+    private void write(String roomId, long firstPosition, List<byte[]> entries) {
+        try {
+            SegmentWriter writer = writers.get(roomId);
+            if (writer == null || writer.size >= segmentBytes) {
+                Path roomDirectory = Files.createDirectories(directory.resolve(fileName(roomId)));
+                String name = String.format("%020d-%s", firstPosition, nodeName);
+                writer = new SegmentWriter(roomDirectory.resolve(name + SEGMENT_SUFFIX),
+                        roomDirectory.resolve(name + INDEX_SUFFIX));
+                writers.put(roomId, writer);
+            }
+
+            ByteBuffer block = compress(entries);
+            int blockLength = block.remaining();
+            long offset;
+            try (FileChannel segment = FileChannel.open(writer.segment,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                offset = segment.size();
+                while (block.hasRemaining()) {
+                    segment.write(block);
+                }
+            }
+
+            // The first timestamp lets a block be found by time without inflating it
+            LocalDateTime timestamp = messageCodecs.decode(entries.get(0)).getTimestamp();
+            ByteBuffer record = ByteBuffer.allocate(INDEX_RECORD_BYTES);
+            record.putLong(firstPosition)
+                    .putLong(timestamp != null ? timestamp.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() : 0)
+                    .putLong(offset)
+                    .putInt(blockLength)
+                    .putInt(entries.size())
+                    .flip();
+            try (FileChannel index = FileChannel.open(writer.index,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                while (record.hasRemaining()) {
+                    index.write(record);
+                }
+            }
+            writer.size = offset + blockLength;
+            written.increment(entries.size());
+        } catch (IOException | RuntimeException e) {
+            // The block is already gone from Redis
+            dropped.increment(entries.size());
+            logger.error("Could not archive messages {}..{} of room {}",
+                    firstPosition, firstPosition + entries.size() - 1, roomId, e);
+        }
+    }
+
+    private ByteBuffer compress(List<byte[]> entries) throws IOException {
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(raw);
+        for (byte[] entry : entries) {
+            out.writeInt(entry.length);
+            out.write(entry);
+        }
+        byte[] input = raw.toByteArray();
+
+        deflater.reset();
+        deflater.setInput(input);
+        deflater.finish();
+        ByteArrayOutputStream block = new ByteArrayOutputStream(input.length / 2 + 64);
+        new DataOutputStream(block).writeInt(input.length);
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            block.write(buffer, 0, deflater.deflate(buffer));
+        }
+        return ByteBuffer.wrap(block.toByteArray());
+    }
+
+    // Lists the room's segments again, oldest first; several nodes' segments may cover interleaved
+    // positions. Segments already mapped are kept, except that each node's newest one is re-mapped
+    // on next use, since that node may have appended to it, and so is a segment that was its
+    // node's newest until now.
+    private List<Segment> refreshSegments(String roomId) {
+        Map<Path, Segment> known = new HashMap<>();
+        List<Segment> previous = mappedRooms.get(roomId);
+        if (previous != null) {
+            previous.forEach(segment -> known.put(segment.indexPath, segment));
+        }
+        List<Segment> segments = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory.resolve(fileName(roomId)))) {
+            files.filter(file -> file.getFileName().toString().endsWith(INDEX_SUFFIX))
+                    .forEach(index -> {
+                        Segment segment = known.get(index);
+                        if (segment == null) {
+                            String name = index.getFileName().toString();
+                            String base = name.substring(0, name.length() - INDEX_SUFFIX.length());
+                            segment = new Segment(index, index.resolveSibling(base + SEGMENT_SUFFIX),
+                                    Long.parseLong(base.substring(0, base.indexOf('-'))),
+                                    base.substring(base.indexOf('-') + 1));
+                        }
+                        segments.add(segment);
+                    });
+        } catch (NoSuchFileException e) {
+            // Nothing archived yet
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        segments.sort(Comparator.comparingLong(segment -> segment.firstPosition));
+
+        Map<String, Segment> newestByNode = new HashMap<>();
+        segments.forEach(segment -> newestByNode.put(segment.node, segment));
+        for (Segment segment : segments) {
+            if (newestByNode.get(segment.node) == segment) {
+                segment.remap();
+            } else if (!segment.sealed) {
+                segment.remap();
+                segment.sealed = true;
+            }
+        }
+        List<Segment> snapshot = Collections.unmodifiableList(segments);
+        mappedRooms.put(roomId, snapshot);
+        return snapshot;
+    }
+
+    private static Block find(List<Segment> segments, long position) {
+        for (Segment segment : segments) {
+            if (segment.firstPosition > position) {
+                break;
+            }
+            Block block = segment.find(position);
+            if (block != null) {
+                return block;
+            }
+        }
+        return null;
+    }
+
+    // URL encoding keeps any id a single, reversible path element; dots are encoded too so ".."
+    // cannot climb out of the archive directory
+    static String fileName(String id) {
+        return URLEncoder.encode(id, StandardCharsets.UTF_8).replace(".", "%2E").replace("*", "%2A");
+    }
+
+    private static MappedByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    // One read's view of a room: starts from the mapped segments and refreshes them at most once,
+    // on the first position they do not hold
+    private final class RoomReader {
+
+        final String roomId;
+        List<Segment> segments;
+        private boolean refreshed;
+
+        RoomReader(String roomId) {
+            this.roomId = roomId;
+            this.segments = mappedRooms.get(roomId);
+            if (segments == null) {
+                segments = refreshSegments(roomId);
+                refreshed = true;
+            }
+        }
+
+        Block find(long position) {
+            Block block = HistoryArchive.find(segments, position);
+            if (block == null && !refreshed) {
+                segments = refreshSegments(roomId);
+                refreshed = true;
+                block = HistoryArchive.find(segments, position);
+            }
+            // Older archived messages exist, so this position should have been there too
+            if (block == null && !segments.isEmpty() && position >= segments.get(0).firstPosition) {
+                gaps.increment();
+                logger.debug("Archive of room {} has no message at position {}", roomId, position);
+            }
+            return block;
+        }
+    }
+
+    private static final class SegmentWriter {
+
+        final Path segment;
+        final Path index;
+        long size;
+
+        SegmentWriter(Path segment, Path index) {
+            this.segment = segment;
+            this.index = index;
+        }
+    }
+
+    // Mapped on first use and shared by concurrent reads, which only use absolute gets. A segment
+    // still being appended to is mapped as far as it was written at that moment, until remap().
+    private static final class Segment {
+
+        final Path indexPath;
+        final Path segmentPath;
+        final long firstPosition;
+        final String node;
+        // Set once a newer segment of the same node exists, after which this one never changes
+        boolean sealed;
+        private volatile MappedByteBuffer index;
+        private volatile MappedByteBuffer data;
+
+        Segment(Path indexPath, Path segmentPath, long firstPosition, String node) {
+            this.indexPath = indexPath;
+            this.segmentPath = segmentPath;
+            this.firstPosition = firstPosition;
+            this.node = node;
+        }
+
+        // Blocks are written before their index records, so the data is re-mapped whenever the index
+        // points past the current mapping
+        void remap() {
+            index = null;
+        }
+
+        // Binary search for the last block starting at or before position
+        Block find(long position) {
+            try {
+                MappedByteBuffer index = this.index;
+                if (index == null) {
+                    index = map(indexPath);
+                    this.index = index;
+                }
+                int low = 0;
+                int high = index.capacity() / INDEX_RECORD_BYTES - 1;
+                int found = -1;
+                while (low <= high) {
+                    int middle = (low + high) >>> 1;
+                    if (index.getLong(middle * INDEX_RECORD_BYTES) <= position) {
+                        found = middle;
+                        low = middle + 1;
+                    } else {
+                        high = middle - 1;
+                    }
+                }
+                if (found < 0) {
+                    return null;
+                }
+                int record = found * INDEX_RECORD_BYTES;
+                long first = index.getLong(record);
+                int count = index.getInt(record + 28);
+                if (position >= first + count) {
+                    return null;
+                }
+                long offset = index.getLong(record + 16);
+                int length = index.getInt(record + 24);
+                MappedByteBuffer data = this.data;
+                if (data == null || offset + length > data.capacity()) {
+                    data = map(segmentPath);
+                    this.data = data;
+                }
+                return new Block(data, first, offset, length, count);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private static final class Block {
+
+        final MappedByteBuffer data;
+        final long firstPosition;
+        final long offset;
+        final int length;
+        final int count;
+
+        Block(MappedByteBuffer data, long firstPosition, long offset, int length, int count) {
+            this.data = data;
+            this.firstPosition = firstPosition;
+            this.offset = offset;
+            this.length = length;
+            this.count = count;
+        }
+
+        // Inflates straight from the mapping into one buffer, then slices out the entries
+        List<byte[]> entries() {
+            ByteBuffer block = data.slice((int) offset, length);
+            byte[] raw = new byte[block.getInt()];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(block);
+                int inflated = 0;
+                while (inflated < raw.length) {
+                    int count = inflater.inflate(raw, inflated, raw.length - inflated);
+                    if (count == 0 && (inflater.finished() || inflater.needsInput())) {
+                        throw new DataFormatException("block ends early");
+                    }
+                    inflated += count;
+                }
+            } catch (DataFormatException e) {
+                throw new IllegalStateException("Corrupt archive block at offset " + offset, e);
+            } finally {
+                inflater.end();
+            }
+            ByteBuffer entries = ByteBuffer.wrap(raw);
+            List<byte[]> result = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                byte[] entry = new byte[entries.getInt()];
+                entries.get(entry);
+                result.add(entry);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package com.example.chat.service;
+
+import com.example.chat.model.ChatMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Per-node cache of the newest decoded messages of recently opened rooms. Entries are filled when a
+// room's latest page is read, then kept current by write-through from RedisService and by frames the
+// relay receives from other nodes. Every message carries its history position, so a missed message
+// shows up as a gap and drops the entry instead of serving incomplete history. A position that
+// goes backwards, as in a room deleted and recreated under the same id, drops it too.
+@Component
+public class HistoryCache {
+
+    // Rough per-message cost beyond its encoded size: object headers, String copies, timestamp
+    private static final int MESSAGE_OVERHEAD_BYTES = 160;
+
+    private final Map<String, RoomHistory> rooms = new ConcurrentHashMap<>();
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final Object evictionLock = new Object();
+
+    private final boolean enabled;
+    private final int maxRooms;
+    private final long maxBytes;
+    private final int window;
+    private final int historyLimit;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+
+    @Autowired
+    public HistoryCache(MeterRegistry meterRegistry,
+                        @Value("${app.chat.history-cache.enabled:true}") boolean enabled,
+                        @Value("${app.chat.history-cache.max-rooms:1000}") int maxRooms,
+                        @Value("${app.chat.history-cache.max-bytes:67108864}") long maxBytes,
+                        @Value("${app.chat.history-cache.window:200}") int window,
+                        @Value("${app.chat.message-history-limit:100}") int historyLimit) {
+        this.enabled = enabled;
+        this.maxRooms = maxRooms;
+        this.maxBytes = maxBytes;
+        this.window = Math.min(window, historyLimit);
+        this.historyLimit = historyLimit;
+
+        this.hits = Counter.builder("chat.history.cache.requests").tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("chat.history.cache.requests").tag("result", "miss").register(meterRegistry);
+        this.evictions = Counter.builder("chat.history.cache.evictions").register(meterRegistry);
+        Gauge.builder("chat.history.cache.rooms", rooms, Map::size).register(meterRegistry);
+        Gauge.builder("chat.history.cache.bytes", totalBytes, AtomicLong::get)
+                .baseUnit("bytes").register(meterRegistry);
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    public boolean contains(String roomId) {
+        return rooms.containsKey(roomId);
+    }
+
+    // Answers a history page from memory, or returns null when the cached window cannot
+    public HistorySlice read(String roomId, String mode, long cursor, int limit) {
+        RoomHistory history = rooms.get(roomId);
+        if (history == null) {
+            misses.increment();
+            return null;
+        }
+        synchronized (history) {
+            if (history.loading) {
+                misses.increment();
+                return null;
+            }
+            long last = history.lastPosition();
+            long firstRetained = Math.max(history.firstRetained, last - historyLimit + 1);
+            long from;
+            long to;
+            if ("before".equals(mode)) {
+                to = Math.min(cursor - 1, last);
+                from = Math.max(firstRetained, to - limit + 1);
+            } else if ("after".equals(mode)) {
+                from = Math.max(cursor + 1, firstRetained);
+                to = Math.min(last, from + limit - 1);
+            } else {
+                to = last;
+                from = Math.max(firstRetained, last - limit + 1);
+            }
+            if (from <= to && from < history.firstPosition) {
+                misses.increment();
+                return null;
+            }
+
+            hits.increment();
+            history.lastAccess = System.nanoTime();
+            List<ChatMessage> messages = new ArrayList<>();
+            for (long position = from; position <= to; position++) {
+                messages.add(history.messages.get((int) (position - history.firstPosition)));
+            }
+            return new HistorySlice(firstRetained, from, messages);
+        }
+    }
+
+    // Reserves an entry before its latest window is read from Redis, so appends that land
+    // meanwhile are buffered instead of lost. Returns false if the room is already cached.
+    public boolean beginLoad(String roomId) {
+        return enabled && rooms.putIfAbsent(roomId, new RoomHistory()) == null;
+    }
+
+    public void completeLoad(String roomId, HistorySlice slice, List<Integer> sizes) {
+        RoomHistory history = rooms.get(roomId);
+        if (history == null) {
+            return;
+        }
+        synchronized (history) {
+            history.firstRetained = slice.getFirstRetained();
+            history.firstPosition = slice.getFrom();
+            history.loading = false;
+            history.lastAccess = System.nanoTime();
+            addAll(history, slice.getMessages(), sizes);
+            for (PendingAppend pending : history.pendingAppends) {
+                if (!appendLocked(roomId, history, pending.firstPosition, pending.messages, pending.sizes)) {
+                    break;
+                }
+            }
+            history.pendingAppends.clear();
+        }
+        evictIfNeeded();
+    }
+
+    public void abortLoad(String roomId) {
+        RoomHistory history = rooms.get(roomId);
+        if (history != null && history.loading) {
+            remove(roomId, history);
+        }
+    }
+
+    // Adds messages stored at consecutive positions starting at firstPosition
+    public void append(String roomId, long firstPosition, List<ChatMessage> messages, List<Integer> sizes) {
+        RoomHistory history = rooms.get(roomId);
+        if (history == null) {
+            return;
+        }
+        synchronized (history) {
+            if (history.loading) {
+                history.pendingAppends.add(new PendingAppend(firstPosition, messages, sizes));
+                return;
+            }
+            appendLocked(roomId, history, firstPosition, messages, sizes);
+        }
+        evictIfNeeded();
+    }
+
+    public void invalidate(String roomId) {
+        RoomHistory history = rooms.get(roomId);
+        if (history != null) {
+            remove(roomId, history);
+        }
+    }
+
+    private boolean appendLocked(String roomId, RoomHistory history, long firstPosition,
+                                 List<ChatMessage> messages, List<Integer> sizes) {
+        long next = history.lastPosition() + 1;
+        if (firstPosition > next) {
+            // A message we never saw sits in between; the cached window can no longer be trusted
+            remove(roomId, history);
+            return false;
+        }
+        int skip = (int) (next - firstPosition);
+        // Overlap is expected while a load replays buffered appends, but only with the same messages
+        if (skip > 0 && (firstPosition < history.firstPosition || !Objects.equals(messages.get(0).getId(),
+                history.messages.get((int) (firstPosition - history.firstPosition)).getId()))) {
+            remove(roomId, history);
+            return false;
+        }
+        if (skip < messages.size()) {
+            addAll(history, messages.subList(skip, messages.size()), sizes.subList(skip, sizes.size()));
+        }
+        return true;
+    }
+
+    private void addAll(RoomHistory history, List<ChatMessage> messages, List<Integer> sizes) {
+        long added = 0;
+        for (int i = 0; i < messages.size(); i++) {
+            history.messages.add(messages.get(i));
+            int size = sizes.get(i) + MESSAGE_OVERHEAD_BYTES;
+            history.sizes.add(size);
+            added += size;
+        }
+
+        int overflow = history.messages.size() - window;
+        if (overflow > 0) {
+            for (int i = 0; i < overflow; i++) {
+                added -= history.sizes.get(i);
+            }
+            history.messages.subList(0, overflow).clear();
+            history.sizes.subList(0, overflow).clear();
+            history.firstPosition += overflow;
+        }
+        history.bytes += added;
+        totalBytes.addAndGet(added);
+    }
+
+    private void remove(String roomId, RoomHistory history) {
+        if (rooms.remove(roomId, history)) {
+            synchronized (history) {
+                totalBytes.addAndGet(-history.bytes);
+                history.bytes = 0;
+            }
+        }
+    }
+
+    // Least recently read rooms go first; scanning is fine at the room counts this is sized for
+    private void evictIfNeeded() {
+        if (rooms.size() <= maxRooms && totalBytes.get() <= maxBytes) {
+            return;
+        }
+        synchronized (evictionLock) {
+            while (rooms.size() > maxRooms || totalBytes.get() > maxBytes) {
+                Map.Entry<String, RoomHistory> coldest = rooms.entrySet().stream()
+                        .filter(entry -> !entry.getValue().loading)
+                        .min(Comparator.comparingLong(entry -> entry.getValue().lastAccess))
+                        .orElse(null);
+                if (coldest == null) {
+                    return;
+                }
+                remove(coldest.getKey(), coldest.getValue());
+                evictions.increment();
+            }
+        }
+    }
+
+    private static final class RoomHistory {
+
+        final List<ChatMessage> messages = new ArrayList<>();
+        final List<Integer> sizes = new ArrayList<>();
+        final List<PendingAppend> pendingAppends = new ArrayList<>();
+        long firstPosition;
+        long firstRetained;
+        long bytes;
+        volatile long lastAccess = System.nanoTime();
+        volatile boolean loading = true;
+
+        long lastPosition() {
+            return firstPosition + messages.size() - 1;
+        }
+    }
+
+    private static final class PendingAppend {
+
+        final long firstPosition;
+        final List<ChatMessage> messages;
+        final List<Integer> sizes;
+
+        PendingAppend(long firstPosition, List<ChatMessage> messages, List<Integer> sizes) {
+            this.firstPosition = firstPosition;
+            this.messages = messages;
+            this.sizes = sizes;
+        }
+    }
+}
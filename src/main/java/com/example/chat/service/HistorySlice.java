@@ -0,0 +1,32 @@
+package com.example.chat.service;
+
+import com.example.chat.model.ChatMessage;
+
+import java.util.List;
+
+// A contiguous run of history: the oldest position still retained for the room, the position of
+// the first message in the run, and the messages themselves (oldest first)
+public final class HistorySlice {
+
+    private final long firstRetained;
+    private final long from;
+    private final List<ChatMessage> messages;
+
+    public HistorySlice(long firstRetained, long from, List<ChatMessage> messages) {
+        this.firstRetained = firstRetained;
+        this.from = from;
+        this.messages = messages;
+    }
+
+    public long getFirstRetained() {
+        return firstRetained;
+    }
+
+    public long getFrom() {
+        return from;
+    }
+
+    public List<ChatMessage> getMessages() {
+        return messages;
+    }
+}
@@ -0,0 +1,9 @@
+package com.example.chat.service;
+
+// Source of message and room ids
+public interface IdGenerator {
+
+    String getName();
+
+    String nextId();
+}
@@ -0,0 +1,45 @@
+package com.example.chat.service;
+
+import com.example.chat.model.ChatMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+
+public class JsonMessageCodec implements MessageCodec {
+
+    public static final String NAME = "json";
+
+    private final ObjectMapper objectMapper;
+
+    public JsonMessageCodec(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(ChatMessage message) {
+        try {
+            return objectMapper.writeValueAsBytes(message);
+        } catch (IOException e) {
+            throw new RuntimeException("Error encoding message as JSON", e);
+        }
+    }
+
+    @Override
+    public ChatMessage decode(byte[] data) {
+        try {
+            return objectMapper.readValue(data, ChatMessage.class);
+        } catch (IOException e) {
+            throw new RuntimeException("Error decoding JSON message", e);
+        }
+    }
+
+    @Override
+    public boolean canDecode(byte[] data) {
+        return data.length > 0 && data[0] == '{';
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.chat.service;
+
+import com.example.chat.model.ChatMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Write-behind buffer for history appends. A single flusher thread hands batches to the
+// consumer once flushSize appends are queued or the oldest one has waited flushInterval.
+class MessageAppendBuffer {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageAppendBuffer.class);
+
+    private final BlockingQueue<PendingAppend> queue;
+    private final int flushSize;
+    private final long flushIntervalNanos;
+    private final Consumer<List<PendingAppend>> flusher;
+    private final Thread thread;
+    private volatile boolean running;
+
+    MessageAppendBuffer(int flushSize, long flushIntervalMillis, int capacity,
+                        Consumer<List<PendingAppend>> flusher) {
+        this.queue = new LinkedBlockingQueue<>(capacity);
+        this.flushSize = flushSize;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.flusher = flusher;
+        this.thread = new Thread(this::flushLoop, "chat-history-writer");
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        running = true;
+        thread.start();
+    }
+
+    // Blocks the caller when the buffer is full so a slow Redis applies backpressure
+    void add(PendingAppend append) {
+        try {
+            queue.put(append);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing message for Redis", e);
+        }
+    }
+
+    int size() {
+        return queue.size();
+    }
+
+    void close() {
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Flush whatever is left so a clean shutdown loses nothing
+        List<PendingAppend> remaining = new ArrayList<>();
+        while (queue.drainTo(remaining, flushSize) > 0) {
+            flush(remaining);
+        }
+    }
+
+    private void flushLoop() {
+        List<PendingAppend> batch = new ArrayList<>(flushSize);
+        while (running) {
+            try {
+                PendingAppend first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = first.enqueuedAt + flushIntervalNanos;
+                while (batch.size() < flushSize) {
+                    queue.drainTo(batch, flushSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= flushSize || remaining <= 0) {
+                        break;
+                    }
+                    PendingAppend next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                flush(batch);
+            } catch (InterruptedException e) {
+                if (!batch.isEmpty()) {
+                    flush(batch);
+                }
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void flush(List<PendingAppend> batch) {
+        try {
+            flusher.accept(batch);
+        } catch (RuntimeException e) {
+            logger.error("Failed to write {} messages to Redis", batch.size(), e);
+        } finally {
+            batch.clear();
+        }
+    }
+
+    static final class PendingAppend {
+
+        final String roomId;
+        final ChatMessage message;
+        final byte[] value;
+        final long activity;
+        final long enqueuedAt;
+        // Completed with the message's history position once written
+        final CompletableFuture<Long> result = new CompletableFuture<>();
+
+        PendingAppend(String roomId, ChatMessage message, byte[] value, long activity) {
+            this.roomId = roomId;
+            this.message = message;
+            this.value = value;
+            this.activity = activity;
+            this.enqueuedAt = System.nanoTime();
+        }
+    }
+}
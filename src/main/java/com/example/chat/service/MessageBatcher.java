@@ -0,0 +1,152 @@
+package com.example.chat.service;
+
+import com.example.chat.config.BatchSubscriptions;
+import com.example.chat.config.WebSocketConfig;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeTypeUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Coalesces a room's messages into one JSON array frame on /topic/room-batch/{id} per window, or
+// sooner once max-messages are pending. The array is built once from the already encoded JSON and
+// the same frame goes to every batch subscriber, so a busy room costs each of them one frame and one
+// socket write per window instead of one per message. Per-message delivery on /topic/room/{id} is
+// unchanged for everyone else.
+@Component
+public class MessageBatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageBatcher.class);
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final BatchSubscriptions batchSubscriptions;
+    private final boolean enabled;
+    private final boolean relayBroker;
+    private final long windowMillis;
+    private final int maxMessages;
+    private final DistributionSummary batchSizes;
+
+    // Rooms with messages waiting; a room's entry is removed whenever its batch is sent. Batches are
+    // sent from inside the map's compute for the room, so a full batch sent by offer() and a partial
+    // one sent by flush() cannot overtake each other.
+    private final Map<String, List<byte[]>> pending = new ConcurrentHashMap<>();
+    private ScheduledExecutorService flusher;
+
+    @Autowired
+    public MessageBatcher(SimpMessagingTemplate messagingTemplate, BatchSubscriptions batchSubscriptions,
+                          MeterRegistry meterRegistry,
+                          @Value("${app.chat.delivery.batch.enabled:true}") boolean enabled,
+                          @Value("${app.chat.broker.mode:simple}") String brokerMode,
+                          @Value("${app.chat.delivery.batch.window-ms:25}") long windowMillis,
+                          @Value("${app.chat.delivery.batch.max-messages:100}") int maxMessages) {
+        this.messagingTemplate = messagingTemplate;
+        this.batchSubscriptions = batchSubscriptions;
+        this.enabled = enabled;
+        this.relayBroker = WebSocketConfig.BROKER_MODE_RELAY.equals(brokerMode);
+        this.windowMillis = windowMillis;
+        this.maxMessages = maxMessages;
+        this.batchSizes = DistributionSummary.builder("chat.delivery.batch.messages").register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "chat-delivery-batcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, windowMillis, windowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (flusher != null) {
+            flusher.shutdownNow();
+        }
+    }
+
+    // json is one message as sent on /topic/room/{id}. With an external broker, batch subscribers
+    // may sit on any node, so every room is batched.
+    public void offer(String roomId, byte[] json) {
+        if (!enabled || (!relayBroker && !batchSubscriptions.hasSubscribers(roomId))) {
+            return;
+        }
+        pending.compute(roomId, (id, batch) -> {
+            if (batch == null) {
+                batch = new ArrayList<>();
+            }
+            batch.add(json);
+            if (batch.size() < maxMessages) {
+                return batch;
+            }
+            send(id, batch);
+            return null;
+        });
+    }
+
+    public void flush() {
+        for (String roomId : pending.keySet()) {
+            pending.computeIfPresent(roomId, (id, batch) -> {
+                send(id, batch);
+                return null;
+            });
+        }
+    }
+
+    // Only hands the frame to the broker: the simple broker queues it on the outbound channel's
+    // executor and the relay writes it asynchronously, so the room's map entry is held briefly
+    private void send(String roomId, List<byte[]> batch) {
+        try {
+            doSend(roomId, batch);
+        } catch (RuntimeException e) {
+            logger.warn("Could not deliver a batch of {} messages to room {}", batch.size(), roomId, e);
+        }
+    }
+
+    private void doSend(String roomId, List<byte[]> batch) {
+        batchSizes.record(batch.size());
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create();
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        accessor.setLeaveMutable(true);
+        messagingTemplate.send(BatchSubscriptions.BATCH_ROOM_PREFIX + roomId,
+                MessageBuilder.createMessage(toJsonArray(batch), accessor.getMessageHeaders()));
+    }
+
+    static byte[] toJsonArray(List<byte[]> messages) {
+        int length = 1 + messages.size();
+        for (byte[] message : messages) {
+            length += message.length;
+        }
+        byte[] array = new byte[length];
+        array[0] = '[';
+        int offset = 1;
+        for (byte[] message : messages) {
+            if (offset > 1) {
+                array[offset++] = ',';
+            }
+            System.arraycopy(message, 0, array, offset, message.length);
+            offset += message.length;
+        }
+        array[offset] = ']';
+        return array;
+    }
+}
@@ -0,0 +1,16 @@
+package com.example.chat.service;
+
+import com.example.chat.model.ChatMessage;
+
+// Encoding used for chat messages stored in Redis history and sent over pub/sub
+public interface MessageCodec {
+
+    String getName();
+
+    byte[] encode(ChatMessage message);
+
+    ChatMessage decode(byte[] data);
+
+    // Whether the bytes look like something this codec produced
+    boolean canDecode(byte[] data);
+}
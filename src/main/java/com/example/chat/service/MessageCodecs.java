@@ -0,0 +1,83 @@
+package com.example.chat.service;
+
+import com.example.chat.model.ChatMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+// Picks the configured codec for writes and recognizes every known format on reads, so lists
+// holding a mix of old and new entries stay readable while they are migrated.
+@Component
+public class MessageCodecs {
+
+    private final ObjectMapper objectMapper;
+    private final JsonMessageCodec json;
+    private final List<MessageCodec> codecs;
+    private final MessageCodec active;
+
+    @Autowired
+    public MessageCodecs(ObjectMapper objectMapper, @Value("${app.chat.codec:json}") String codecName) {
+        this.objectMapper = objectMapper;
+        this.json = new JsonMessageCodec(objectMapper);
+        this.codecs = List.of(json, new SmileMessageCodec(objectMapper));
+        this.active = codecs.stream()
+                .filter(codec -> codec.getName().equalsIgnoreCase(codecName))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unknown message codec: " + codecName));
+    }
+
+    public MessageCodec getActive() {
+        return active;
+    }
+
+    public JsonMessageCodec getJson() {
+        return json;
+    }
+
+    public byte[] encode(ChatMessage message) {
+        return active.encode(message);
+    }
+
+    public ChatMessage decode(byte[] data) {
+        for (MessageCodec codec : codecs) {
+            if (codec.canDecode(data)) {
+                return codec.decode(data);
+            }
+        }
+        if (isLegacy(data)) {
+            return json.decode(unwrapLegacy(data));
+        }
+        throw new IllegalArgumentException("Unrecognized message encoding");
+    }
+
+    // Whether the bytes are already in the configured format
+    public boolean isActive(byte[] data) {
+        return active.canDecode(data);
+    }
+
+    // Converts any supported encoding to the JSON that STOMP clients expect
+    public byte[] toJson(byte[] data) {
+        if (json.canDecode(data)) {
+            return data;
+        }
+        return json.encode(decode(data));
+    }
+
+    // Entries written before the codec existed: a JSON document wrapped in a JSON string
+    private static boolean isLegacy(byte[] data) {
+        return data.length > 0 && data[0] == '"';
+    }
+
+    private byte[] unwrapLegacy(byte[] data) {
+        try {
+            return objectMapper.readValue(data, String.class).getBytes(StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new RuntimeException("Error decoding legacy message", e);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.chat.service;
+
+import com.example.chat.model.ChatMessage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Service;
+import org.springframework.util.MimeTypeUtils;
+
+// Single fan-out path for chat messages on this node. With the JSON codec the bytes already encoded
+// for history go to the local broker as they are; other nodes get them from append-messages.lua.
+@Service
+public class MessageDispatcher {
+
+    public static final String ROOM_DESTINATION_PREFIX = "/topic/room/";
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final MessageCodecs messageCodecs;
+    private final MessageBatcher messageBatcher;
+
+    @Autowired
+    public MessageDispatcher(SimpMessagingTemplate messagingTemplate, MessageCodecs messageCodecs,
+                             MessageBatcher messageBatcher) {
+        this.messagingTemplate = messagingTemplate;
+        this.messageCodecs = messageCodecs;
+        this.messageBatcher = messageBatcher;
+    }
+
+    public void dispatch(ChatMessage message, byte[] encoded) {
+        // Browsers only understand JSON; a binary storage codec costs one extra encode here
+        byte[] json = messageCodecs.getJson().canDecode(encoded) ? encoded : messageCodecs.getJson().encode(message);
+
+        deliverLocally(message.getRoomId(), json);
+    }
+
+    // For notices that are shown on this node only and never stored
+    public void deliverLocally(ChatMessage message) {
+        deliverLocally(message.getRoomId(), messageCodecs.getJson().encode(message));
+    }
+
+    // Send pre-encoded JSON to the broker so no further message conversion happens. With the simple
+    // broker that reaches this node's subscribers; in relay mode it reaches every node's. Subscribers
+    // that opted in to batching get it later as part of an array frame.
+    public void deliverLocally(String roomId, byte[] payload) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create();
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        accessor.setLeaveMutable(true);
+        messagingTemplate.send(ROOM_DESTINATION_PREFIX + roomId,
+                MessageBuilder.createMessage(payload, accessor.getMessageHeaders()));
+        messageBatcher.offer(roomId, payload);
+    }
+}
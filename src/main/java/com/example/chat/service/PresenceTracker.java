@@ -0,0 +1,129 @@
+package com.example.chat.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Room membership of the WebSocket sessions connected to this node. Redis only holds who is
+// present and through which nodes; this node keeps its members alive there with a heartbeat, so
+// when the node dies its members expire instead of staying online forever. Sessions are counted
+// here, nodes in Redis, so a user joins or leaves a room only with their first or last session
+// across all nodes.
+@Component
+public class PresenceTracker {
+
+    private static final Logger logger = LoggerFactory.getLogger(PresenceTracker.class);
+
+    private final RedisService redisService;
+    private final RoomUserCounts roomUserCounts;
+
+    // sessionId -> roomId -> username the session joined as
+    private final Map<String, Map<String, String>> roomsBySession = new ConcurrentHashMap<>();
+    // roomId -> username -> number of local sessions in the room as that user (several tabs)
+    private final Map<String, Map<String, Integer>> sessionsByRoom = new ConcurrentHashMap<>();
+
+    @Autowired
+    public PresenceTracker(RedisService redisService, RoomUserCounts roomUserCounts, MeterRegistry meterRegistry) {
+        this.redisService = redisService;
+        this.roomUserCounts = roomUserCounts;
+
+        // Sessions that joined at least one room, and rooms with at least one member, on this node
+        Gauge.builder("chat.presence.sessions", roomsBySession, Map::size).register(meterRegistry);
+        Gauge.builder("chat.presence.rooms", sessionsByRoom, Map::size).register(meterRegistry);
+    }
+
+    // Returns true when this is the user's first session in the room on any node
+    public boolean join(String sessionId, String roomId, String username) {
+        String previous = roomsBySession.computeIfAbsent(sessionId, id -> new ConcurrentHashMap<>())
+                .put(roomId, username);
+        boolean first = false;
+        if (!username.equals(previous)) {
+            if (previous != null) {
+                release(roomId, previous);
+            }
+            first = acquire(roomId, username);
+        }
+        boolean joined = redisService.addUserToRoom(roomId, username);
+        return first && joined;
+    }
+
+    // Returns true when the user's last session in the room on any node left
+    public boolean leave(String sessionId, String roomId, String username) {
+        Map<String, String> rooms = roomsBySession.get(sessionId);
+        if (rooms == null || !rooms.remove(roomId, username)) {
+            return false;
+        }
+        return release(roomId, username);
+    }
+
+    // Ends every membership of a closed session; returns roomId -> username for the users that
+    // have no session left in that room
+    public Map<String, String> disconnect(String sessionId) {
+        Map<String, String> rooms = roomsBySession.remove(sessionId);
+        if (rooms == null) {
+            return Map.of();
+        }
+        Map<String, String> left = new LinkedHashMap<>();
+        rooms.forEach((roomId, username) -> {
+            if (release(roomId, username)) {
+                left.put(roomId, username);
+            }
+        });
+        return left;
+    }
+
+    @Scheduled(fixedDelayString = "${app.chat.presence.heartbeat-ms:10000}")
+    public void heartbeat() {
+        Map<String, Set<String>> usersByRoom = new HashMap<>();
+        sessionsByRoom.forEach((roomId, users) -> usersByRoom.put(roomId, new HashSet<>(users.keySet())));
+        if (usersByRoom.isEmpty()) {
+            return;
+        }
+        try {
+            redisService.refreshPresence(usersByRoom);
+        } catch (RuntimeException e) {
+            // Members survive a missed beat as long as the next one lands within the TTL
+            logger.warn("Presence heartbeat for {} rooms failed", usersByRoom.size(), e);
+        }
+    }
+
+    private boolean acquire(String roomId, String username) {
+        boolean[] first = {false};
+        sessionsByRoom.compute(roomId, (id, users) -> {
+            Map<String, Integer> members = users != null ? users : new ConcurrentHashMap<>();
+            first[0] = members.merge(username, 1, Integer::sum) == 1;
+            return members;
+        });
+        if (first[0]) {
+            roomUserCounts.adjust(roomId, 1);
+        }
+        return first[0];
+    }
+
+    private boolean release(String roomId, String username) {
+        boolean[] last = {false};
+        sessionsByRoom.computeIfPresent(roomId, (id, users) -> {
+            users.computeIfPresent(username, (name, count) -> {
+                last[0] = count == 1;
+                return last[0] ? null : count - 1;
+            });
+            return users.isEmpty() ? null : users;
+        });
+        if (!last[0]) {
+            return false;
+        }
+        roomUserCounts.adjust(roomId, -1);
+        return redisService.removeUserFromRoom(roomId, username);
+    }
+}
@@ -1,148 +1,919 @@
 package com.example.chat.service;
 
+import com.example.chat.config.NodeIdentity;
 import com.example.chat.model.ChatMessage;
 import com.example.chat.model.ChatRoom;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.example.chat.model.CursorPage;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.connection.zset.DefaultTuple;
+import org.springframework.data.redis.connection.zset.Tuple;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.PatternTopic;
 import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.util.ByteUtils;
 import org.springframework.stereotype.Service;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 @Service
 public class RedisService {
 
+    private static final Logger logger = LoggerFactory.getLogger(RedisService.class);
+
+    // Sorted set of room ids scored by last activity (epoch millis)
+    public static final String ROOM_INDEX_KEY = "rooms:index";
+    public static final String TRENDING_KEY = "rooms:trending";
+
+    // Where history lives: a trimmed list per room, or a stream per room
+    public static final String HISTORY_BACKEND_LIST = "list";
+    public static final String HISTORY_BACKEND_STREAM = "stream";
+
     private final RedisTemplate<String, Object> redisTemplate;
+    private final StringRedisTemplate stringRedisTemplate;
     private final RedisMessageListenerContainer messageListenerContainer;
-    private final ObjectMapper objectMapper;
+    private final MessageCodecs messageCodecs;
+    private final NodeIdentity nodeIdentity;
+    private final HistoryCache historyCache;
+    private final HistoryArchive historyArchive;
+    private final IdGenerator idGenerator;
+    private final ChatMetrics chatMetrics;
+    // Null when the connection factory has no reactive API (Jedis)
+    private final ReactiveStringRedisTemplate reactiveRedisTemplate;
+    // Jedis rejects scripting commands inside a pipeline
+    private final boolean pipelineScripts;
+
+    // Lua's unpack() has a stack limit, so large batches for one room are split
+    private static final int MAX_MESSAGES_PER_SCRIPT = 1000;
+
+    private final boolean streamBackend;
+    private final RedisScript<List> appendMessagesScript;
+    private final RedisScript<List> readHistoryScript;
+    private final RedisScript<Long> findMessageScript =
+            RedisScript.of(new ClassPathResource("scripts/find-message.lua"), Long.class);
+    private final RedisScript<List> scanPresenceScript =
+            RedisScript.of(new ClassPathResource("scripts/scan-presence.lua"), List.class);
+    private final RedisScript<Long> joinPresenceScript =
+            RedisScript.of(new ClassPathResource("scripts/join-presence.lua"), Long.class);
+    private final RedisScript<Long> leavePresenceScript =
+            RedisScript.of(new ClassPathResource("scripts/leave-presence.lua"), Long.class);
+    private final RedisScript<Long> flushActivityScript =
+            RedisScript.of(new ClassPathResource("scripts/flush-activity.lua"), Long.class);
+    private final RedisScript<Long> rateLimitScript =
+            RedisScript.of(new ClassPathResource("scripts/rate-limit.lua"), Long.class);
+    private volatile boolean appendScriptLoaded;
+    private MessageAppendBuffer appendBuffer;
 
     @Value("${app.chat.message-history-limit:100}")
     private int messageHistoryLimit;
 
+    @Value("${app.chat.write-behind.enabled:true}")
+    private boolean writeBehindEnabled;
+
+    @Value("${app.chat.write-behind.flush-size:256}")
+    private int writeBehindFlushSize;
+
+    @Value("${app.chat.write-behind.flush-interval-ms:5}")
+    private long writeBehindFlushIntervalMs;
+
+    @Value("${app.chat.write-behind.queue-capacity:100000}")
+    private int writeBehindQueueCapacity;
+
+    @Value("${app.chat.presence.ttl-ms:30000}")
+    private long presenceTtlMs;
+
+    @Value("${app.chat.rooms.rebuild-index-on-startup:false}")
+    private boolean rebuildRoomIndexOnStartup;
+
+    @Value("${app.chat.codec.migrate-on-startup:false}")
+    private boolean migrateHistoryOnStartup;
+
+    @Value("${app.chat.history.catch-up-scan-limit:1000}")
+    private int catchUpScanLimit;
+
     @Autowired
     public RedisService(RedisTemplate<String, Object> redisTemplate, 
+                       StringRedisTemplate stringRedisTemplate,
                        RedisMessageListenerContainer messageListenerContainer,
-                       ObjectMapper objectMapper) {
+                       MessageCodecs messageCodecs,
+                       NodeIdentity nodeIdentity,
+                       HistoryCache historyCache,
+                       HistoryArchive historyArchive,
+                       IdGenerator idGenerator,
+                       ChatMetrics chatMetrics,
+                       @Value("${app.chat.history.backend:list}") String historyBackend,
+                       ObjectProvider<ReactiveStringRedisTemplate> reactiveRedisTemplate) {
         this.redisTemplate = redisTemplate;
+        this.stringRedisTemplate = stringRedisTemplate;
         this.messageListenerContainer = messageListenerContainer;
-        this.objectMapper = objectMapper;
+        this.messageCodecs = messageCodecs;
+        this.nodeIdentity = nodeIdentity;
+        this.historyCache = historyCache;
+        this.historyArchive = historyArchive;
+        this.idGenerator = idGenerator;
+        this.chatMetrics = chatMetrics;
+        this.reactiveRedisTemplate = reactiveRedisTemplate.getIfAvailable();
+        this.pipelineScripts = redisTemplate.getConnectionFactory() instanceof LettuceConnectionFactory;
+
+        // Both backends number messages by the same per-room position, so cursors, the history
+        // cache and relay frames work the same way with either
+        if (!HISTORY_BACKEND_LIST.equalsIgnoreCase(historyBackend) && !HISTORY_BACKEND_STREAM.equalsIgnoreCase(historyBackend)) {
+            throw new IllegalArgumentException("Unknown app.chat.history.backend: " + historyBackend);
+        }
+        this.streamBackend = HISTORY_BACKEND_STREAM.equalsIgnoreCase(historyBackend);
+        this.appendMessagesScript = RedisScript.of(new ClassPathResource(
+                streamBackend ? "scripts/append-stream.lua" : "scripts/append-messages.lua"), List.class);
+        this.readHistoryScript = RedisScript.of(new ClassPathResource(
+                streamBackend ? "scripts/read-stream.lua" : "scripts/read-history.lua"), List.class);
+    }
+
+    @PostConstruct
+    public void startWriteBehind() {
+        if (writeBehindEnabled) {
+            appendBuffer = new MessageAppendBuffer(writeBehindFlushSize, writeBehindFlushIntervalMs,
+                    writeBehindQueueCapacity, this::appendMessages);
+            appendBuffer.start();
+        }
+    }
+
+    @PreDestroy
+    public void stopWriteBehind() {
+        if (appendBuffer != null) {
+            appendBuffer.close();
+        }
     }
 
     // Message operations
-    public void saveMessage(ChatMessage message) {
-        message.setId(UUID.randomUUID().toString());
-        String key = "room:" + message.getRoomId() + ":messages";
-        
+    // Assigns the message id and encodes it once; the same bytes go to subscribers and to history
+    public byte[] encodeMessage(ChatMessage message) {
+        message.setId(idGenerator.nextId());
+        byte[] encoded = messageCodecs.encode(message);
+        chatMetrics.encoded(encoded.length);
+        return encoded;
+    }
+
+    // Appends an encoded message to its room's history without waiting on Redis. The future completes
+    // with the message's history position once it is stored and published to the other nodes, or
+    // exceptionally if the write failed.
+    public CompletableFuture<Long> saveMessage(ChatMessage message, byte[] encoded) {
+        MessageAppendBuffer.PendingAppend append = new MessageAppendBuffer.PendingAppend(
+                message.getRoomId(), message, encoded, toEpochMilli(message.getTimestamp()));
+
+        if (appendBuffer != null) {
+            // Write-behind coalesces appends into pipelined flushes
+            appendBuffer.add(append);
+        } else if (reactiveRedisTemplate != null) {
+            appendReactive(append);
+        } else {
+            // Blocking clients such as Jedis write through on the caller's thread; a failure is
+            // reported through the returned future
+            try {
+                appendMessages(List.of(append));
+            } catch (RuntimeException e) {
+                logger.debug("Append to room {} failed", message.getRoomId(), e);
+            }
+        }
+        return append.result;
+    }
+
+    // Bulk counterpart of saveMessage for imports: writes straight through, bypassing write-behind,
+    // so the messages are stored and relayed when this returns. Throws if the write failed.
+    public void saveMessages(List<ChatMessage> messages, List<byte[]> encoded) {
+        List<MessageAppendBuffer.PendingAppend> appends = new ArrayList<>(messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            ChatMessage message = messages.get(i);
+            appends.add(new MessageAppendBuffer.PendingAppend(
+                    message.getRoomId(), message, encoded.get(i), toEpochMilli(message.getTimestamp())));
+        }
+        appendMessages(appends);
+    }
+
+    // Append, trim, index bump and publish run as one script call per room, all in a single pipeline
+    void appendMessages(List<MessageAppendBuffer.PendingAppend> appends) {
+        Map<String, List<MessageAppendBuffer.PendingAppend>> byRoom = new LinkedHashMap<>();
+        for (MessageAppendBuffer.PendingAppend append : appends) {
+            byRoom.computeIfAbsent(append.roomId, roomId -> new ArrayList<>()).add(append);
+        }
+        List<List<MessageAppendBuffer.PendingAppend>> chunks = new ArrayList<>();
+        for (List<MessageAppendBuffer.PendingAppend> pending : byRoom.values()) {
+            for (int from = 0; from < pending.size(); from += MAX_MESSAGES_PER_SCRIPT) {
+                chunks.add(pending.subList(from, Math.min(from + MAX_MESSAGES_PER_SCRIPT, pending.size())));
+            }
+        }
+
+        long start = System.nanoTime();
         try {
-            String messageJson = objectMapper.writeValueAsString(message);
-            redisTemplate.opsForList().rightPush(key, messageJson);
-            
-            // Trim list to keep only recent messages
-            redisTemplate.opsForList().trim(key, -messageHistoryLimit, -1);
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException("Error saving message to Redis", e);
+            try {
+                executeAppendScript(chunks);
+            } catch (RuntimeException e) {
+                // Script cache is empty after a Redis restart or failover; nothing was applied, so retry once
+                if (!isNoScriptError(e)) {
+                    throw e;
+                }
+                appendScriptLoaded = false;
+                executeAppendScript(chunks);
+            }
+            chatMetrics.recordRedis("save", start, true);
+        } catch (RuntimeException e) {
+            chatMetrics.recordRedis("save", start, false);
+            appends.forEach(append -> append.result.completeExceptionally(e));
+            throw e;
+        }
+    }
+
+    // Single append over Lettuce's reactive API: nothing blocks, and the command shares the
+    // connection with every other in-flight command
+    private void appendReactive(MessageAppendBuffer.PendingAppend append) {
+        List<MessageAppendBuffer.PendingAppend> chunk = List.of(append);
+        byte[][] keysAndArgs = appendScriptArgs(chunk);
+        long start = System.nanoTime();
+        reactiveRedisTemplate.execute(connection -> connection.scriptingCommands()
+                        .<List<Object>>evalSha(appendMessagesScript.getSha1(), ReturnType.MULTI, 3, toBuffers(keysAndArgs))
+                        .onErrorResume(RedisService::isNoScriptError, e -> connection.scriptingCommands().eval(
+                                ByteBuffer.wrap(appendMessagesScript.getScriptAsString().getBytes(StandardCharsets.UTF_8)),
+                                ReturnType.MULTI, 3, toBuffers(keysAndArgs))))
+                .next()
+                .subscribe(reply -> {
+                    chatMetrics.recordRedis("save", start, true);
+                    appended(chunk, reply);
+                }, e -> {
+                    chatMetrics.recordRedis("save", start, false);
+                    append.result.completeExceptionally(e);
+                });
+    }
+
+    private static ByteBuffer[] toBuffers(byte[][] values) {
+        ByteBuffer[] buffers = new ByteBuffer[values.length];
+        for (int i = 0; i < values.length; i++) {
+            buffers[i] = ByteBuffer.wrap(values[i]);
+        }
+        return buffers;
+    }
+
+    private void executeAppendScript(List<List<MessageAppendBuffer.PendingAppend>> chunks) {
+        if (!appendScriptLoaded) {
+            byte[] script = appendMessagesScript.getScriptAsString().getBytes(StandardCharsets.UTF_8);
+            redisTemplate.execute((RedisCallback<String>) connection -> connection.scriptingCommands().scriptLoad(script));
+            appendScriptLoaded = true;
+        }
+
+        String sha = appendMessagesScript.getSha1();
+        List<Object> results;
+        if (pipelineScripts) {
+            // Replies carry raw trimmed entries, which the template's JSON serializer must not touch
+            results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (List<MessageAppendBuffer.PendingAppend> chunk : chunks) {
+                    connection.scriptingCommands().evalSha(sha, ReturnType.MULTI, 3, appendScriptArgs(chunk));
+                }
+                return null;
+            }, RedisSerializer.byteArray());
+        } else {
+            // One round trip per room, still on a single pooled connection
+            results = redisTemplate.execute((RedisCallback<List<Object>>) connection -> {
+                List<Object> replies = new ArrayList<>(chunks.size());
+                for (List<MessageAppendBuffer.PendingAppend> chunk : chunks) {
+                    replies.add(connection.scriptingCommands().evalSha(sha, ReturnType.MULTI, 3, appendScriptArgs(chunk)));
+                }
+                return replies;
+            });
+        }
+        for (int i = 0; i < chunks.size(); i++) {
+            appended(chunks.get(i), (List<?>) results.get(i));
+        }
+    }
+
+    // Keys and arguments of append-messages.lua (or append-stream.lua) for messages of a single room
+    private byte[][] appendScriptArgs(List<MessageAppendBuffer.PendingAppend> chunk) {
+        String roomId = chunk.get(0).roomId;
+        byte[][] keysAndArgs = new byte[9 + (streamBackend ? 2 : 1) * chunk.size()][];
+        keysAndArgs[0] = historyKey(roomId);
+        keysAndArgs[1] = ROOM_INDEX_KEY.getBytes(StandardCharsets.UTF_8);
+        keysAndArgs[2] = ("room:" + roomId + ":seq").getBytes(StandardCharsets.UTF_8);
+        keysAndArgs[3] = String.valueOf(messageHistoryLimit).getBytes(StandardCharsets.UTF_8);
+        keysAndArgs[4] = roomId.getBytes(StandardCharsets.UTF_8);
+        // Imported messages can come in any time order, so the newest one sets the activity score
+        long activity = 0;
+        for (MessageAppendBuffer.PendingAppend append : chunk) {
+            activity = Math.max(activity, append.activity);
+        }
+        keysAndArgs[5] = String.valueOf(activity).getBytes(StandardCharsets.UTF_8);
+        keysAndArgs[6] = (ChatMessageRelay.ROOM_CHANNEL_PREFIX + roomId).getBytes(StandardCharsets.UTF_8);
+        keysAndArgs[7] = nodeIdentity.getId().getBytes(StandardCharsets.UTF_8);
+        keysAndArgs[8] = String.valueOf(historyArchive.getBatch()).getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < chunk.size(); i++) {
+            MessageAppendBuffer.PendingAppend append = chunk.get(i);
+            if (streamBackend) {
+                // The stream keeps the message id beside the payload so catch-up can find it
+                keysAndArgs[9 + 2 * i] = append.message.getId().getBytes(StandardCharsets.UTF_8);
+                keysAndArgs[10 + 2 * i] = append.value;
+            } else {
+                keysAndArgs[9 + i] = append.value;
+            }
+        }
+        return keysAndArgs;
+    }
+
+    // The script returns the position of the chunk's last message, then any entries it trimmed for
+    // the archive: hand those over, write through to the cache if the room is cached, and resolve
+    // each message's future with its position
+    private void appended(List<MessageAppendBuffer.PendingAppend> chunk, List<?> reply) {
+        long last = (Long) reply.get(0);
+        long first = last - chunk.size() + 1;
+        String roomId = chunk.get(0).roomId;
+        if (reply.size() > 2) {
+            List<byte[]> trimmed = new ArrayList<>(reply.size() - 2);
+            for (int i = 2; i < reply.size(); i++) {
+                // The reactive connection hands back buffers, the blocking one arrays
+                Object entry = reply.get(i);
+                trimmed.add(entry instanceof ByteBuffer buffer ? ByteUtils.getBytes(buffer) : (byte[]) entry);
+            }
+            historyArchive.archive(roomId, (Long) reply.get(1), trimmed);
+        }
+        if (historyCache.contains(roomId)) {
+            List<ChatMessage> messages = new ArrayList<>(chunk.size());
+            List<Integer> sizes = new ArrayList<>(chunk.size());
+            for (MessageAppendBuffer.PendingAppend append : chunk) {
+                messages.add(append.message);
+                sizes.add(append.value.length);
+            }
+            historyCache.append(roomId, first, messages, sizes);
+        }
+        for (int i = 0; i < chunk.size(); i++) {
+            chunk.get(i).result.complete(first + i);
+        }
+    }
+
+    // EVALSHA, falling back to EVAL when the script is not cached on the server yet
+    @SuppressWarnings("unchecked")
+    private <T> T evalScript(RedisScript<?> script, ReturnType returnType, int numKeys, byte[]... keysAndArgs) {
+        return redisTemplate.execute((RedisCallback<T>) connection -> {
+            try {
+                return (T) connection.scriptingCommands().evalSha(script.getSha1(), returnType, numKeys, keysAndArgs);
+            } catch (RuntimeException e) {
+                if (!isNoScriptError(e)) {
+                    throw e;
+                }
+                byte[] body = script.getScriptAsString().getBytes(StandardCharsets.UTF_8);
+                return (T) connection.scriptingCommands().eval(body, returnType, numKeys, keysAndArgs);
+            }
+        });
+    }
+
+    private static boolean isNoScriptError(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause.getMessage() != null && cause.getMessage().contains("NOSCRIPT")) {
+                return true;
+            }
         }
+        return false;
     }
 
     public List<ChatMessage> getMessageHistory(String roomId) {
-        String key = "room:" + roomId + ":messages";
-        List<Object> messages = redisTemplate.opsForList().range(key, 0, -1);
+        if (streamBackend) {
+            return readHistory(roomId, "latest", 0, Integer.MAX_VALUE, new ArrayList<>()).getMessages();
+        }
+        byte[] key = ("room:" + roomId + ":messages").getBytes(StandardCharsets.UTF_8);
+        List<byte[]> messages = chatMetrics.timeRedis("history.read", () -> redisTemplate.execute(
+                (RedisCallback<List<byte[]>>) connection -> connection.listCommands().lRange(key, 0, -1)));
         
         return messages.stream()
-                .map(msg -> {
-                    try {
-                        return objectMapper.readValue(msg.toString(), ChatMessage.class);
-                    } catch (JsonProcessingException e) {
-                        throw new RuntimeException("Error parsing message from Redis", e);
-                    }
-                })
+                .map(this::decode)
                 .collect(Collectors.toList());
     }
 
+    // One page of history, oldest first. Cursors are absolute message positions: "before" pages
+    // back from a position, "after" pages forward, and neither returns the newest messages.
+    // Cost is O(limit) whatever the configured history length; pages inside a cached room's window
+    // are served from memory without touching Redis.
+    public CursorPage<ChatMessage> getMessageHistory(String roomId, String before, String after, int limit) {
+        if (before != null && after != null) {
+            throw new IllegalArgumentException("Only one of before and after may be given");
+        }
+        String mode = before != null ? "before" : after != null ? "after" : "latest";
+        long cursor = before != null ? Long.parseLong(before) : after != null ? Long.parseLong(after) : 0;
+
+        HistorySlice cached = historyCache.read(roomId, mode, cursor, limit);
+        if (cached != null && !reachesArchive(mode, cursor, limit, cached)) {
+            return toPage(mode, limit, cached);
+        }
+
+        // A latest-page miss loads the room's whole cache window and answers from its tail
+        if ("latest".equals(mode) && limit <= historyCache.getWindow() && historyCache.beginLoad(roomId)) {
+            try {
+                List<Integer> sizes = new ArrayList<>();
+                HistorySlice window = readHistory(roomId, mode, cursor, historyCache.getWindow(), sizes);
+                historyCache.completeLoad(roomId, window, sizes);
+                int skip = Math.max(0, window.getMessages().size() - limit);
+                return toPage(mode, limit, withArchive(roomId, mode, cursor, limit, new HistorySlice(
+                        window.getFirstRetained(), window.getFrom() + skip,
+                        window.getMessages().subList(skip, window.getMessages().size()))));
+            } catch (RuntimeException e) {
+                historyCache.abortLoad(roomId);
+                throw e;
+            }
+        }
+        return toPage(mode, limit, withArchive(roomId, mode, cursor, limit,
+                readHistory(roomId, mode, cursor, limit, new ArrayList<>())));
+    }
+
+    // Whether a page read from Redis (or the cache) is missing messages that only the archive can
+    // have: an "after" page that skipped past the oldest retained message, or a short page that
+    // stopped at it. The cache clamps its oldest message to the history limit, which the list may
+    // exceed while an archive block builds up, so for a cached page this means "read Redis".
+    private boolean reachesArchive(String mode, long cursor, int limit, HistorySlice slice) {
+        if (!historyArchive.isEnabled()) {
+            return false;
+        }
+        if ("after".equals(mode)) {
+            return slice.getFrom() > cursor + 1;
+        }
+        return slice.getMessages().size() < limit && slice.getFrom() == slice.getFirstRetained()
+                && slice.getFirstRetained() > 1;
+    }
+
+    // Completes a page from the archive where Redis ran out, keeping positions contiguous
+    private HistorySlice withArchive(String roomId, String mode, long cursor, int limit, HistorySlice slice) {
+        if (!reachesArchive(mode, cursor, limit, slice)) {
+            return slice;
+        }
+        List<ChatMessage> messages = slice.getMessages();
+        if ("after".equals(mode)) {
+            HistorySlice archived = historyArchive.readAfter(roomId, cursor + 1,
+                    (int) Math.min(limit, slice.getFrom() - cursor - 1));
+            if (archived == null) {
+                return slice;
+            }
+            List<ChatMessage> combined = new ArrayList<>(archived.getMessages());
+            if (archived.getFrom() + combined.size() == slice.getFrom()) {
+                combined.addAll(messages.subList(0, Math.min(messages.size(), limit - combined.size())));
+            }
+            return new HistorySlice(archived.getFirstRetained(), archived.getFrom(), combined);
+        }
+
+        // A "before" cursor may already lie deep inside the archive
+        long to = slice.getFirstRetained() - 1;
+        if ("before".equals(mode)) {
+            to = Math.min(to, cursor - 1);
+        }
+        HistorySlice archived = historyArchive.readBefore(roomId, to, limit - messages.size());
+        if (archived == null) {
+            return slice;
+        }
+        List<ChatMessage> combined = new ArrayList<>(archived.getMessages());
+        if (to + 1 == slice.getFrom()) {
+            combined.addAll(messages);
+        }
+        return new HistorySlice(archived.getFirstRetained(), archived.getFrom(), combined);
+    }
+
+    // Catch-up for a client that reconnects: the messages after the last one it saw, oldest first,
+    // continuing like an "after" page. Returns null when that message cannot be found because it
+    // was trimmed or is older than the scan limit, and always with the list backend, which cannot
+    // look messages up by id.
+    public CursorPage<ChatMessage> getMessagesSince(String roomId, String lastSeenId, int limit) {
+        if (!streamBackend) {
+            return null;
+        }
+        Long position = chatMetrics.timeRedis("history.find", () -> evalScript(findMessageScript,
+                ReturnType.INTEGER, 1, historyKey(roomId),
+                lastSeenId.getBytes(StandardCharsets.UTF_8),
+                String.valueOf(catchUpScanLimit).getBytes(StandardCharsets.UTF_8)));
+        if (position == null || position == 0) {
+            return null;
+        }
+        return getMessageHistory(roomId, null, String.valueOf(position), limit);
+    }
+
+    // Runs read-history.lua (or read-stream.lua), collecting each entry's encoded size into sizes
+    private HistorySlice readHistory(String roomId, String mode, long cursor, int limit, List<Integer> sizes) {
+        List<Object> result = chatMetrics.timeRedis("history.read", () -> evalScript(readHistoryScript,
+                ReturnType.MULTI, 2,
+                historyKey(roomId),
+                ("room:" + roomId + ":seq").getBytes(StandardCharsets.UTF_8),
+                mode.getBytes(StandardCharsets.UTF_8),
+                String.valueOf(cursor).getBytes(StandardCharsets.UTF_8),
+                String.valueOf(limit).getBytes(StandardCharsets.UTF_8)));
+
+        List<ChatMessage> messages = new ArrayList<>(result.size() - 2);
+        for (int i = 2; i < result.size(); i++) {
+            byte[] value = (byte[]) result.get(i);
+            messages.add(decode(value));
+            sizes.add(value.length);
+        }
+        return new HistorySlice((Long) result.get(0), (Long) result.get(1), messages);
+    }
+
+    private ChatMessage decode(byte[] value) {
+        chatMetrics.decoded(value.length);
+        return messageCodecs.decode(value);
+    }
+
+    private byte[] historyKey(String roomId) {
+        return ("room:" + roomId + (streamBackend ? ":stream" : ":messages")).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static CursorPage<ChatMessage> toPage(String mode, int limit, HistorySlice slice) {
+        List<ChatMessage> messages = new ArrayList<>(slice.getMessages());
+        long from = slice.getFrom();
+        long to = from + messages.size() - 1;
+
+        String olderCursor = from > slice.getFirstRetained() ? String.valueOf(from) : null;
+        CursorPage<ChatMessage> page;
+        if ("after".equals(mode)) {
+            // A full page means newer messages may follow; a short one means we are caught up
+            page = new CursorPage<>(messages, messages.size() == limit ? String.valueOf(to) : null);
+            page.setPrevCursor(messages.isEmpty() ? null : olderCursor);
+        } else {
+            page = new CursorPage<>(messages, olderCursor);
+            page.setPrevCursor(messages.isEmpty() ? null : String.valueOf(to));
+        }
+        return page;
+    }
+
+    // Rewrites a room's history in the configured codec. Runs optimistically under WATCH and
+    // retries if a new message lands mid-rewrite. Returns the number of re-encoded entries.
+    public int migrateHistory(String roomId) {
+        byte[] key = ("room:" + roomId + ":messages").getBytes(StandardCharsets.UTF_8);
+        for (int attempt = 0; attempt < 5; attempt++) {
+            Integer migrated = redisTemplate.execute((RedisCallback<Integer>) connection -> {
+                connection.watch(key);
+                List<byte[]> current = connection.listCommands().lRange(key, 0, -1);
+                int stale = 0;
+                byte[][] rewritten = new byte[current.size()][];
+                for (int i = 0; i < current.size(); i++) {
+                    byte[] value = current.get(i);
+                    if (messageCodecs.isActive(value)) {
+                        rewritten[i] = value;
+                    } else {
+                        rewritten[i] = messageCodecs.encode(messageCodecs.decode(value));
+                        stale++;
+                    }
+                }
+                if (stale == 0) {
+                    connection.unwatch();
+                    return 0;
+                }
+                connection.multi();
+                connection.keyCommands().del(key);
+                connection.listCommands().rPush(key, rewritten);
+                List<Object> results = connection.exec();
+                return results == null || results.isEmpty() ? null : stale;
+            });
+            if (migrated != null) {
+                return migrated;
+            }
+        }
+        throw new IllegalStateException("Could not migrate history of room " + roomId + " due to concurrent writes");
+    }
+
+    public long migrateAllHistory() {
+        long migrated = 0;
+        ScanOptions options = ScanOptions.scanOptions().count(1000).build();
+        try (Cursor<ZSetOperations.TypedTuple<String>> rooms = stringRedisTemplate.opsForZSet().scan(ROOM_INDEX_KEY, options)) {
+            while (rooms.hasNext()) {
+                migrated += migrateHistory(rooms.next().getValue());
+            }
+        }
+        return migrated;
+    }
+
     // Room operations
-    public void createRoom(ChatRoom room) {
+    public ChatRoom createRoom(ChatRoom room) {
         String key = "room:" + room.getId();
-        redisTemplate.opsForHash().putAll(key, objectToMap(room));
+        chatMetrics.timeRedis("room.create", () -> {
+            stringRedisTemplate.opsForHash().putAll(key, RoomHashMapper.toHash(room));
+            stringRedisTemplate.opsForZSet().add(ROOM_INDEX_KEY, room.getId(), toEpochMilli(room.getLastActivity()));
+        });
+        return room;
     }
 
     public ChatRoom getRoom(String roomId) {
         String key = "room:" + roomId;
-        if (!redisTemplate.hasKey(key)) {
-            return null;
+        return RoomHashMapper.fromHash(chatMetrics.timeRedis("room.get",
+                () -> stringRedisTemplate.opsForHash().entries(key)));
+    }
+
+    // Fetches many rooms with one pipelined HGETALL each, in the order given. Missing rooms are skipped.
+    public List<ChatRoom> getRooms(Collection<String> roomIds) {
+        List<Object> hashes = chatMetrics.timeRedis("room.get-many", () ->
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    for (String roomId : roomIds) {
+                        connection.hashCommands().hGetAll(("room:" + roomId).getBytes(StandardCharsets.UTF_8));
+                    }
+                    return null;
+                }));
+
+        List<ChatRoom> rooms = new ArrayList<>(hashes.size());
+        for (Object hash : hashes) {
+            ChatRoom room = RoomHashMapper.fromHash((Map<?, ?>) hash);
+            if (room != null) {
+                rooms.add(room);
+            }
         }
-        
-        try {
-            Object roomData = redisTemplate.opsForHash().entries(key);
-            String roomJson = objectMapper.writeValueAsString(roomData);
-            return objectMapper.readValue(roomJson, ChatRoom.class);
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException("Error getting room from Redis", e);
+        return rooms;
+    }
+
+    // Most recently active rooms first. The cursor is "<score>:<skip>", where skip counts the rooms
+    // with exactly that score already returned, so ties never repeat or drop rooms between pages.
+    public CursorPage<String> getRooms(String cursor, int limit) {
+        double maxScore = Double.POSITIVE_INFINITY;
+        long skip = 0;
+        if (cursor != null && !cursor.isEmpty()) {
+            String[] parts = cursor.split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid room cursor: " + cursor);
+            }
+            maxScore = Long.parseLong(parts[0]);
+            skip = Long.parseLong(parts[1]);
         }
+
+        double max = maxScore;
+        long offset = skip;
+        Set<ZSetOperations.TypedTuple<String>> tuples = chatMetrics.timeRedis("room.list", () ->
+                stringRedisTemplate.opsForZSet()
+                        .reverseRangeByScoreWithScores(ROOM_INDEX_KEY, Double.NEGATIVE_INFINITY, max, offset, limit));
+
+        List<String> roomIds = new ArrayList<>(tuples.size());
+        double lastScore = maxScore;
+        long sameScoreCount = 0;
+        for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+            double score = tuple.getScore();
+            sameScoreCount = score == lastScore ? sameScoreCount + 1 : 1;
+            lastScore = score;
+            roomIds.add(tuple.getValue());
+        }
+
+        if (roomIds.size() < limit) {
+            return new CursorPage<>(roomIds, null);
+        }
+        long nextSkip = lastScore == maxScore ? skip + sameScoreCount : sameScoreCount;
+        return new CursorPage<>(roomIds, (long) lastScore + ":" + nextSkip);
     }
 
-    public Set<String> getAllRooms() {
-        return redisTemplate.keys("room:*")
-                .stream()
-                .filter(key -> !key.contains(":messages"))
-                .map(key -> key.substring(5)) // Remove "room:" prefix
-                .collect(Collectors.toSet());
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (rebuildRoomIndexOnStartup) {
+            rebuildRoomIndex();
+        }
+        if (migrateHistoryOnStartup) {
+            if (streamBackend) {
+                logger.warn("app.chat.codec.migrate-on-startup only rewrites list history; skipped with the stream backend");
+            } else {
+                migrateAllHistory();
+            }
+        }
+    }
+
+    // One-off migration for rooms created before the index existed. Uses SCAN, never KEYS.
+    public long rebuildRoomIndex() {
+        long added = 0;
+        ScanOptions options = ScanOptions.scanOptions().match("room:*").count(1000).build();
+        try (Cursor<String> keys = stringRedisTemplate.scan(options)) {
+            while (keys.hasNext()) {
+                String key = keys.next();
+                // Room hashes are "room:{id}"; skip the ":messages"/":users" companions
+                if (key.indexOf(':', 5) >= 0) {
+                    continue;
+                }
+                Boolean isNew = stringRedisTemplate.opsForZSet()
+                        .addIfAbsent(ROOM_INDEX_KEY, key.substring(5), System.currentTimeMillis());
+                if (Boolean.TRUE.equals(isNew)) {
+                    added++;
+                }
+            }
+        }
+        return added;
     }
 
     public void deleteRoom(String roomId) {
         String roomKey = "room:" + roomId;
         String messagesKey = "room:" + roomId + ":messages";
+        // ":users" is the permanent member set used before presence expired
+        String usersKey = "room:" + roomId + ":users";
+        String streamKey = "room:" + roomId + ":stream";
+        String seqKey = "room:" + roomId + ":seq";
+        byte[] channel = (ChatMessageRelay.ROOM_CHANNEL_PREFIX + roomId).getBytes(StandardCharsets.UTF_8);
         
-        redisTemplate.delete(roomKey);
-        redisTemplate.delete(messagesKey);
+        // Published after the deletes, so other nodes drop their cached window before any frame
+        // of a room recreated under the same id reaches them
+        chatMetrics.timeRedis("room.delete", () -> {
+            redisTemplate.delete(List.of(roomKey, messagesKey, streamKey, usersKey, presenceKey(roomId), seqKey));
+            stringRedisTemplate.opsForZSet().remove(ROOM_INDEX_KEY, roomId);
+            stringRedisTemplate.opsForZSet().remove(TRENDING_KEY, roomId);
+            redisTemplate.execute((RedisCallback<Long>) connection ->
+                    connection.publish(channel, RelayFrame.roomDeleted(nodeIdentity.getId())));
+        });
+        historyCache.invalidate(roomId);
+        historyArchive.delete(roomId);
     }
 
-    // User operations
-    public void addUserToRoom(String roomId, String username) {
-        String key = "room:" + roomId + ":users";
-        redisTemplate.opsForSet().add(key, username);
+    // Presence: "room:{id}:presence" scores each username by when a node last saw it. A member
+    // whose node stops refreshing it (crash, lost connection) falls out of reads after the TTL,
+    // and the key itself expires once no node refreshes it. "room:{id}:presence:{username}" scores
+    // the nodes holding a session of the user the same way, so a user connected through several
+    // nodes joins and leaves the room once.
+    // Returns true when no other node has a session of the user in the room
+    public boolean addUserToRoom(String roomId, String username) {
+        Long joined = chatMetrics.timeRedis("presence.join", () -> evalScript(joinPresenceScript,
+                ReturnType.INTEGER, 2, presenceArgs(roomId, username)));
+        return joined != null && joined == 1;
     }
 
-    public void removeUserFromRoom(String roomId, String username) {
-        String key = "room:" + roomId + ":users";
-        redisTemplate.opsForSet().remove(key, username);
+    // Returns true when the user has no session left in the room on any node
+    public boolean removeUserFromRoom(String roomId, String username) {
+        Long left = chatMetrics.timeRedis("presence.remove", () -> evalScript(leavePresenceScript,
+                ReturnType.INTEGER, 2, presenceArgs(roomId, username)));
+        return left != null && left == 1;
     }
 
-    public Set<String> getRoomUsers(String roomId) {
-        String key = "room:" + roomId + ":users";
-        return redisTemplate.opsForSet().members(key)
-                .stream()
-                .map(Object::toString)
-                .collect(Collectors.toSet());
+    private byte[][] presenceArgs(String roomId, String username) {
+        return new byte[][] {
+                presenceKey(roomId).getBytes(StandardCharsets.UTF_8),
+                presenceNodesKey(roomId, username).getBytes(StandardCharsets.UTF_8),
+                username.getBytes(StandardCharsets.UTF_8),
+                nodeIdentity.getId().getBytes(StandardCharsets.UTF_8),
+                String.valueOf(System.currentTimeMillis()).getBytes(StandardCharsets.UTF_8),
+                String.valueOf(presenceTtlMs).getBytes(StandardCharsets.UTF_8)
+        };
+    }
+
+    // Heartbeat for every member a node currently holds a session for, one pipeline for all rooms
+    public void refreshPresence(Map<String, Set<String>> usersByRoom) {
+        long now = System.currentTimeMillis();
+        byte[] node = nodeIdentity.getId().getBytes(StandardCharsets.UTF_8);
+        chatMetrics.timeRedis("presence.refresh", () ->
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    for (Map.Entry<String, Set<String>> room : usersByRoom.entrySet()) {
+                        byte[] key = presenceKey(room.getKey()).getBytes(StandardCharsets.UTF_8);
+                        Set<Tuple> members = new HashSet<>();
+                        for (String username : room.getValue()) {
+                            members.add(new DefaultTuple(username.getBytes(StandardCharsets.UTF_8), (double) now));
+                            byte[] nodesKey = presenceNodesKey(room.getKey(), username).getBytes(StandardCharsets.UTF_8);
+                            connection.zSetCommands().zAdd(nodesKey, now, node);
+                            connection.keyCommands().pExpire(nodesKey, presenceTtlMs);
+                        }
+                        connection.zSetCommands().zAdd(key, members);
+                        connection.zSetCommands().zRemRangeByScore(key, Double.NEGATIVE_INFINITY, now - presenceTtlMs);
+                        connection.keyCommands().pExpire(key, presenceTtlMs);
+                    }
+                    return null;
+                }));
+    }
+
+    // One page of a room's members. The cursor is Redis's own ZSCAN cursor, so a page costs about
+    // limit entries however large the room is. Expired members are skipped, which can make a page
+    // short or even empty; only a null next cursor means the end.
+    public CursorPage<String> getRoomUsers(String roomId, String cursor, int limit) {
+        String start = cursor == null || cursor.isEmpty() ? "0" : cursor;
+        if (!start.chars().allMatch(Character::isDigit)) {
+            throw new IllegalArgumentException("Invalid user cursor: " + cursor);
+        }
+        List<Object> result = chatMetrics.timeRedis("presence.scan", () -> evalScript(scanPresenceScript,
+                ReturnType.MULTI, 1,
+                presenceKey(roomId).getBytes(StandardCharsets.UTF_8),
+                start.getBytes(StandardCharsets.UTF_8),
+                String.valueOf(System.currentTimeMillis() - presenceTtlMs).getBytes(StandardCharsets.UTF_8),
+                String.valueOf(limit).getBytes(StandardCharsets.UTF_8)));
+
+        String next = new String((byte[]) result.get(0), StandardCharsets.UTF_8);
+        List<String> users = new ArrayList<>(result.size() - 1);
+        for (int i = 1; i < result.size(); i++) {
+            users.add(new String((byte[]) result.get(i), StandardCharsets.UTF_8));
+        }
+        return new CursorPage<>(users, "0".equals(next) ? null : next);
     }
 
     public Long getRoomUserCount(String roomId) {
-        String key = "room:" + roomId + ":users";
-        return redisTemplate.opsForSet().size(key);
+        return chatMetrics.timeRedis("presence.count", () -> stringRedisTemplate.opsForZSet()
+                .count(presenceKey(roomId), System.currentTimeMillis() - presenceTtlMs, Double.POSITIVE_INFINITY));
     }
 
-    // Publish message to Redis pub/sub
-    public void publishMessage(String channel, ChatMessage message) {
-        try {
-            String messageJson = objectMapper.writeValueAsString(message);
-            redisTemplate.convertAndSend(channel, messageJson);
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException("Error publishing message to Redis", e);
+    // Counts for many rooms in one pipeline; used to reconcile RoomUserCounts
+    public Map<String, Long> getRoomUserCounts(Collection<String> roomIds) {
+        long liveSince = System.currentTimeMillis() - presenceTtlMs;
+        List<Object> counts = chatMetrics.timeRedis("presence.count-many", () ->
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    for (String roomId : roomIds) {
+                        connection.zSetCommands().zCount(presenceKey(roomId).getBytes(StandardCharsets.UTF_8),
+                                liveSince, Double.POSITIVE_INFINITY);
+                    }
+                    return null;
+                }));
+        Map<String, Long> result = new LinkedHashMap<>();
+        int i = 0;
+        for (String roomId : roomIds) {
+            result.put(roomId, (Long) counts.get(i++));
         }
+        return result;
     }
 
-    // Utility methods
-    private java.util.Map<String, Object> objectToMap(Object obj) {
-        try {
-            String json = objectMapper.writeValueAsString(obj);
-            return objectMapper.readValue(json, java.util.Map.class);
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException("Error converting object to map", e);
+    private static String presenceKey(String roomId) {
+        return "room:" + roomId + ":presence";
+    }
+
+    private static String presenceNodesKey(String roomId, String username) {
+        return presenceKey(roomId) + ":" + username;
+    }
+
+    // Room activity: "rooms:activity:{bucket}" sorted sets count each room's messages per time
+    // bucket, and "rooms:trending" holds their sum over the window. Every node adds its own counts;
+    // whichever node flushes first in an interval rebuilds the ranking for everyone. Callers split
+    // the rooms over several calls and pass rebuildIntervalMs 0 to all but the last.
+    public void flushRoomActivity(long bucket, int windowBuckets, long bucketMs, long rebuildIntervalMs,
+                                  Map<String, Long> counts, Map<String, LocalDateTime> lastActivity) {
+        // Every key the script touches is passed in KEYS, room hashes included
+        int buckets = windowBuckets + 1;
+        int numKeys = 2 + buckets + counts.size();
+        byte[][] keysAndArgs = new byte[numKeys + 3 + counts.size() * 3][];
+        int i = 0;
+        keysAndArgs[i++] = TRENDING_KEY.getBytes(StandardCharsets.UTF_8);
+        keysAndArgs[i++] = (TRENDING_KEY + ":lock").getBytes(StandardCharsets.UTF_8);
+        for (long b = bucket; b >= bucket - windowBuckets; b--) {
+            keysAndArgs[i++] = ("rooms:activity:" + b).getBytes(StandardCharsets.UTF_8);
+        }
+        List<String> rooms = new ArrayList<>(counts.keySet());
+        for (String roomId : rooms) {
+            keysAndArgs[i++] = ("room:" + roomId).getBytes(StandardCharsets.UTF_8);
         }
+        // A bucket lives until it has left the window
+        keysAndArgs[i++] = String.valueOf((windowBuckets + 2) * bucketMs).getBytes(StandardCharsets.UTF_8);
+        keysAndArgs[i++] = String.valueOf(rebuildIntervalMs).getBytes(StandardCharsets.UTF_8);
+        keysAndArgs[i++] = String.valueOf(buckets).getBytes(StandardCharsets.UTF_8);
+        for (String roomId : rooms) {
+            keysAndArgs[i++] = roomId.getBytes(StandardCharsets.UTF_8);
+            keysAndArgs[i++] = String.valueOf(counts.get(roomId)).getBytes(StandardCharsets.UTF_8);
+            keysAndArgs[i++] = lastActivity.get(roomId).toString().getBytes(StandardCharsets.UTF_8);
+        }
+        chatMetrics.timeRedis("activity.flush", () -> evalScript(flushActivityScript,
+                ReturnType.INTEGER, numKeys, keysAndArgs));
+    }
+
+    // The busiest rooms of the window and their message counts, busiest first
+    public Map<String, Long> getTrendingRooms(int limit) {
+        Set<ZSetOperations.TypedTuple<String>> tuples = chatMetrics.timeRedis("activity.trending", () ->
+                stringRedisTemplate.opsForZSet().reverseRangeWithScores(TRENDING_KEY, 0, limit - 1));
+        Map<String, Long> result = new LinkedHashMap<>();
+        if (tuples != null) {
+            for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+                result.put(tuple.getValue(), tuple.getScore().longValue());
+            }
+        }
+        return result;
+    }
+
+    // Global tier of SendRateLimiter: one permit from the sender's and then the room's bucket,
+    // shared by every node. Returns 0 when allowed, 1 when the sender and 2 when the room is limited.
+    public long acquireSendPermits(String sender, String roomId, long senderIntervalMicros, int senderBurst,
+                                   long roomIntervalMicros, int roomBurst) {
+        Long result = chatMetrics.timeRedis("ratelimit", () -> evalScript(rateLimitScript,
+                ReturnType.INTEGER, 2,
+                ("ratelimit:sender:" + sender).getBytes(StandardCharsets.UTF_8),
+                ("ratelimit:room:" + roomId).getBytes(StandardCharsets.UTF_8),
+                String.valueOf(senderIntervalMicros).getBytes(StandardCharsets.UTF_8),
+                String.valueOf(senderBurst).getBytes(StandardCharsets.UTF_8),
+                String.valueOf(roomIntervalMicros).getBytes(StandardCharsets.UTF_8),
+                String.valueOf(roomBurst).getBytes(StandardCharsets.UTF_8)));
+        return result != null ? result : 0;
+    }
+
+    // Subscribe to Redis pub/sub channels matching the given pattern
+    public void subscribe(String channelPattern, MessageListener listener) {
+        messageListenerContainer.addMessageListener(listener, new PatternTopic(channelPattern));
+    }
+
+    // Utility methods
+    private static long toEpochMilli(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
     }
 }
@@ -0,0 +1,102 @@
+package com.example.chat.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Wire format for cross-node pub/sub: "<origin node id>\n<history position>\n" followed by the
+// encoded message. Frames are built by append-messages.lua once the message has its position,
+// so other nodes learn exactly where it sits in the room history.
+// Several messages appended in one call share a frame: "<origin>\n<first position>\n*<count>\n",
+// then "<length>\n<encoded message>" for each, at consecutive positions. Neither JSON nor Smile
+// payloads start with '*', so the two forms cannot be confused.
+// A batch of no messages, "<origin>\n0\n*0\n", tells the other nodes the room was deleted.
+public final class RelayFrame {
+
+    private static final byte SEPARATOR = '\n';
+    private static final byte BATCH_MARKER = '*';
+
+    private final String origin;
+    private final long position;
+    private final List<byte[]> payloads;
+
+    private RelayFrame(String origin, long position, List<byte[]> payloads) {
+        this.origin = origin;
+        this.position = position;
+        this.payloads = payloads;
+    }
+
+    public static RelayFrame decode(byte[] frame) {
+        int originEnd = indexOf(frame, 0);
+        int positionEnd = originEnd < 0 ? -1 : indexOf(frame, originEnd + 1);
+        if (positionEnd < 0) {
+            throw new IllegalArgumentException("Relay frame is missing its header");
+        }
+        String origin = new String(frame, 0, originEnd, StandardCharsets.UTF_8);
+        long position = parseLong(frame, originEnd + 1, positionEnd);
+        int start = positionEnd + 1;
+        if (start >= frame.length || frame[start] != BATCH_MARKER) {
+            return new RelayFrame(origin, position, List.of(Arrays.copyOfRange(frame, start, frame.length)));
+        }
+
+        int countEnd = indexOf(frame, start);
+        if (countEnd < 0) {
+            throw new IllegalArgumentException("Relay frame is missing its message count");
+        }
+        int count = (int) parseLong(frame, start + 1, countEnd);
+        List<byte[]> payloads = new ArrayList<>(count);
+        int offset = countEnd + 1;
+        for (int i = 0; i < count; i++) {
+            int lengthEnd = indexOf(frame, offset);
+            if (lengthEnd < 0) {
+                throw new IllegalArgumentException("Relay frame ends after " + i + " of " + count + " messages");
+            }
+            int length = (int) parseLong(frame, offset, lengthEnd);
+            if (lengthEnd + 1 + length > frame.length) {
+                throw new IllegalArgumentException("Relay frame ends inside message " + i);
+            }
+            payloads.add(Arrays.copyOfRange(frame, lengthEnd + 1, lengthEnd + 1 + length));
+            offset = lengthEnd + 1 + length;
+        }
+        return new RelayFrame(origin, position, payloads);
+    }
+
+    public static byte[] roomDeleted(String origin) {
+        return (origin + "\n0\n" + (char) BATCH_MARKER + "0\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static long parseLong(byte[] frame, int from, int to) {
+        try {
+            return Long.parseLong(new String(frame, from, to - from, StandardCharsets.US_ASCII));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Relay frame has a malformed number", e);
+        }
+    }
+
+    private static int indexOf(byte[] frame, int from) {
+        for (int i = from; i < frame.length; i++) {
+            if (frame[i] == SEPARATOR) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public String getOrigin() {
+        return origin;
+    }
+
+    // Position of the first message; the others follow at consecutive positions
+    public long getPosition() {
+        return position;
+    }
+
+    public List<byte[]> getPayloads() {
+        return payloads;
+    }
+
+    public boolean isRoomDeleted() {
+        return payloads.isEmpty();
+    }
+}
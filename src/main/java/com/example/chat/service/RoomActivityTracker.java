@@ -0,0 +1,150 @@
+package com.example.chat.service;
+
+import com.example.chat.model.ChatRoom;
+import com.example.chat.model.RoomActivity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Cluster-wide message rate per room over a sliding window of time buckets. Sends only bump a
+// local counter; each flush adds this node's counts to the current bucket in Redis, one script call
+// per FLUSH_ROOMS_PER_CALL rooms so a busy node never holds Redis up for long, and the same calls
+// keep the rooms' lastActivity current. The trending ranking is rebuilt from the
+// window's buckets at most once per flush interval for the whole cluster, so reading the top rooms
+// is a single ZREVRANGE however many rooms exist.
+@Component
+public class RoomActivityTracker {
+
+    private static final Logger logger = LoggerFactory.getLogger(RoomActivityTracker.class);
+
+    static final int FLUSH_ROOMS_PER_CALL = 500;
+
+    private final RedisService redisService;
+    private final long bucketMs;
+    private final int windowBuckets;
+    private final long flushMs;
+
+    // Activity since the last flush. Each flush takes the counts with sumThenReset, so an increment
+    // is counted by exactly one flush; rooms idle for a whole interval are dropped (see add).
+    private final Map<String, PendingActivity> pending = new ConcurrentHashMap<>();
+
+    @Autowired
+    public RoomActivityTracker(RedisService redisService,
+                               @Value("${app.chat.activity.bucket-ms:60000}") long bucketMs,
+                               @Value("${app.chat.activity.window-buckets:5}") int windowBuckets,
+                               @Value("${app.chat.activity.flush-ms:5000}") long flushMs) {
+        this.redisService = redisService;
+        this.bucketMs = bucketMs;
+        this.windowBuckets = windowBuckets;
+        this.flushMs = flushMs;
+    }
+
+    public void messageSent(String roomId) {
+        add(roomId, 1, LocalDateTime.now());
+    }
+
+    // A flush that drops an idle room removes it, marks it retired and drains it one last time. An
+    // add that still reached the old entry and sees it retired moves what the drain missed to a new one.
+    private void add(String roomId, long messages, LocalDateTime lastActivity) {
+        PendingActivity activity = pending.get(roomId);
+        if (activity == null) {
+            activity = pending.computeIfAbsent(roomId, id -> new PendingActivity());
+        }
+        activity.lastActivity = lastActivity;
+        activity.messages.add(messages);
+        if (activity.retired) {
+            long moved = activity.messages.sumThenReset();
+            if (moved > 0) {
+                add(roomId, moved, lastActivity);
+            }
+        }
+    }
+
+    // Runs on every node even without local activity, so the ranking keeps moving as buckets age
+    @Scheduled(fixedDelayString = "${app.chat.activity.flush-ms:5000}")
+    public void flush() {
+        Map<String, Long> counts = new HashMap<>();
+        Map<String, LocalDateTime> lastActivity = new HashMap<>();
+        pending.forEach((roomId, room) -> {
+            long messages = room.messages.sumThenReset();
+            if (messages == 0) {
+                pending.remove(roomId, room);
+                room.retired = true;
+                messages = room.messages.sumThenReset();
+            }
+            if (messages > 0) {
+                counts.put(roomId, messages);
+                lastActivity.put(roomId, room.lastActivity);
+            }
+        });
+
+        long bucket = System.currentTimeMillis() / bucketMs;
+        List<String> rooms = new ArrayList<>(counts.keySet());
+        int flushed = 0;
+        try {
+            // Only the last call rebuilds the ranking, once every chunk's counts are in
+            do {
+                int end = Math.min(flushed + FLUSH_ROOMS_PER_CALL, rooms.size());
+                List<String> chunk = rooms.subList(flushed, end);
+                redisService.flushRoomActivity(bucket, windowBuckets, bucketMs, end == rooms.size() ? flushMs : 0,
+                        subMap(counts, chunk), subMap(lastActivity, chunk));
+                flushed = end;
+            } while (flushed < rooms.size());
+        } catch (RuntimeException e) {
+            // Keep the counts that did not make it for the next flush
+            logger.warn("Could not flush activity of {} rooms", rooms.size() - flushed, e);
+            for (String roomId : rooms.subList(flushed, rooms.size())) {
+                add(roomId, counts.get(roomId), lastActivity.get(roomId));
+            }
+        }
+    }
+
+    private static <V> Map<String, V> subMap(Map<String, V> values, List<String> keys) {
+        Map<String, V> subMap = new HashMap<>(keys.size() * 2);
+        for (String key : keys) {
+            subMap.put(key, values.get(key));
+        }
+        return subMap;
+    }
+
+    // The window is the last windowBuckets full buckets plus the current, partial one. Rooms that
+    // were deleted are left out, so a page can be short.
+    public List<RoomActivity> getTrendingRooms(int limit) {
+        Map<String, Long> counts = redisService.getTrendingRooms(limit);
+        if (counts.isEmpty()) {
+            return List.of();
+        }
+        long now = System.currentTimeMillis();
+        double windowSeconds = (windowBuckets * bucketMs + now % bucketMs) / 1000.0;
+
+        Map<String, String> names = new HashMap<>();
+        for (ChatRoom room : redisService.getRooms(counts.keySet())) {
+            names.put(room.getId(), room.getName());
+        }
+        List<RoomActivity> trending = new ArrayList<>(counts.size());
+        counts.forEach((roomId, messages) -> {
+            if (names.containsKey(roomId)) {
+                trending.add(new RoomActivity(roomId, names.get(roomId), messages, messages / windowSeconds));
+            }
+        });
+        return trending;
+    }
+
+    private static final class PendingActivity {
+
+        final LongAdder messages = new LongAdder();
+        volatile LocalDateTime lastActivity;
+        volatile boolean retired;
+    }
+}
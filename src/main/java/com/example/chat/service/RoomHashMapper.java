@@ -0,0 +1,75 @@
+package com.example.chat.service;
+
+import com.example.chat.model.ChatRoom;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+// Maps ChatRoom to and from its room:{id} hash: one plain string field per property, so a room is
+// written with one HSET and read with one HGETALL. Members live in room:{id}:users, not here.
+public final class RoomHashMapper {
+
+    private static final ObjectMapper LEGACY_READER = new ObjectMapper();
+
+    private RoomHashMapper() {
+    }
+
+    public static Map<String, String> toHash(ChatRoom room) {
+        Map<String, String> hash = new HashMap<>();
+        put(hash, "id", room.getId());
+        put(hash, "name", room.getName());
+        put(hash, "description", room.getDescription());
+        put(hash, "createdAt", room.getCreatedAt() == null ? null : room.getCreatedAt().toString());
+        put(hash, "lastActivity", room.getLastActivity() == null ? null : room.getLastActivity().toString());
+        return hash;
+    }
+
+    // Returns null for an empty hash, which is what HGETALL gives for a missing room
+    public static ChatRoom fromHash(Map<?, ?> hash) {
+        if (hash == null || hash.isEmpty()) {
+            return null;
+        }
+        // Rooms created before this mapping went through the JSON value serializer, so every value
+        // is a quoted JSON string; those hashes are recognisable by their userCount field
+        boolean legacy = hash.containsKey("userCount");
+
+        ChatRoom room = new ChatRoom();
+        room.setId(field(hash, "id", legacy));
+        room.setName(field(hash, "name", legacy));
+        room.setDescription(field(hash, "description", legacy));
+        String createdAt = field(hash, "createdAt", legacy);
+        if (createdAt != null) {
+            room.setCreatedAt(LocalDateTime.parse(createdAt));
+        }
+        String lastActivity = field(hash, "lastActivity", legacy);
+        if (lastActivity != null) {
+            room.setLastActivity(LocalDateTime.parse(lastActivity));
+        }
+        return room;
+    }
+
+    private static void put(Map<String, String> hash, String field, String value) {
+        // Redis hashes cannot hold nulls; an absent field reads back as null
+        if (value != null) {
+            hash.put(field, value);
+        }
+    }
+
+    private static String field(Map<?, ?> hash, String field, boolean legacy) {
+        Object value = hash.get(field);
+        if (value == null) {
+            return null;
+        }
+        if (!legacy) {
+            return value.toString();
+        }
+        try {
+            return LEGACY_READER.readValue(value.toString(), String.class);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Error reading room field " + field, e);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.chat.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Online counts served from memory. A room is loaded from Redis on its first read, follows this
+// node's own joins and leaves immediately, and picks up other nodes' changes at the next
+// reconcile, so counts may lag by up to one refresh interval.
+@Component
+public class RoomUserCounts {
+
+    private static final Logger logger = LoggerFactory.getLogger(RoomUserCounts.class);
+
+    private final RedisService redisService;
+    private final long idleMillis;
+    private final Map<String, RoomCount> counts = new ConcurrentHashMap<>();
+
+    @Autowired
+    public RoomUserCounts(RedisService redisService,
+                          @Value("${app.chat.presence.count-idle-ms:60000}") long idleMillis) {
+        this.redisService = redisService;
+        this.idleMillis = idleMillis;
+    }
+
+    public long get(String roomId) {
+        RoomCount count = counts.get(roomId);
+        if (count == null) {
+            Long loaded = redisService.getRoomUserCount(roomId);
+            RoomCount fresh = new RoomCount(loaded != null ? loaded : 0);
+            count = counts.putIfAbsent(roomId, fresh);
+            if (count == null) {
+                count = fresh;
+            }
+        }
+        count.lastRead = System.currentTimeMillis();
+        return count.value.get();
+    }
+
+    // A user's first session in the room on this node arrived (+1) or their last one left (-1)
+    public void adjust(String roomId, long delta) {
+        RoomCount count = counts.get(roomId);
+        if (count != null) {
+            count.value.accumulateAndGet(delta, (current, change) -> Math.max(0, current + change));
+        }
+    }
+
+    // Rooms nobody asked about for idleMillis are dropped, so the refresh only covers rooms in use
+    @Scheduled(fixedDelayString = "${app.chat.presence.count-refresh-ms:5000}")
+    public void reconcile() {
+        long idleSince = System.currentTimeMillis() - idleMillis;
+        counts.values().removeIf(count -> count.lastRead < idleSince);
+        if (counts.isEmpty()) {
+            return;
+        }
+        List<String> roomIds = new ArrayList<>(counts.keySet());
+        try {
+            Map<String, Long> fresh = redisService.getRoomUserCounts(roomIds);
+            fresh.forEach((roomId, value) -> {
+                RoomCount count = counts.get(roomId);
+                if (count != null) {
+                    count.value.set(value);
+                }
+            });
+        } catch (RuntimeException e) {
+            // Keep serving the last known counts
+            logger.warn("Could not reconcile user counts of {} rooms", roomIds.size(), e);
+        }
+    }
+
+    private static final class RoomCount {
+
+        final AtomicLong value;
+        volatile long lastRead;
+
+        RoomCount(long value) {
+            this.value = new AtomicLong(value);
+            this.lastRead = System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.chat.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Token buckets per sender and per room, checked before a client's message is sent. The sender is
+// the connection the message came in on (a STOMP session, or a remote address for REST), never the
+// name in the message, which a client could change on every message. A session only exists on
+// one node, so for WebSocket senders the sender limit is per connection in both tiers. The local tier
+// holds the limits on this node without touching Redis. The optional global tier applies the same
+// limits across all nodes with one script call, made only for messages the local tier let through;
+// when Redis cannot be reached it lets messages pass rather than stopping the chat.
+@Component
+public class SendRateLimiter {
+
+    private static final Logger logger = LoggerFactory.getLogger(SendRateLimiter.class);
+
+    public enum Decision { ALLOWED, SENDER_LIMITED, ROOM_LIMITED }
+
+    private final RedisService redisService;
+    private final boolean enabled;
+    private final double senderRate;
+    private final int senderBurst;
+    private final double roomRate;
+    private final int roomBurst;
+    private final boolean globalEnabled;
+
+    private final Map<String, TokenBucket> senderBuckets = new ConcurrentHashMap<>();
+    private final Map<String, TokenBucket> roomBuckets = new ConcurrentHashMap<>();
+
+    private final Counter senderRejectedLocal;
+    private final Counter roomRejectedLocal;
+    private final Counter senderRejectedGlobal;
+    private final Counter roomRejectedGlobal;
+
+    @Autowired
+    public SendRateLimiter(RedisService redisService, MeterRegistry meterRegistry,
+                           @Value("${app.chat.rate-limit.enabled:true}") boolean enabled,
+                           @Value("${app.chat.rate-limit.sender.per-second:5}") double senderRate,
+                           @Value("${app.chat.rate-limit.sender.burst:10}") int senderBurst,
+                           @Value("${app.chat.rate-limit.room.per-second:50}") double roomRate,
+                           @Value("${app.chat.rate-limit.room.burst:100}") int roomBurst,
+                           @Value("${app.chat.rate-limit.global.enabled:false}") boolean globalEnabled) {
+        if (senderRate <= 0 || senderBurst < 1 || roomRate <= 0 || roomBurst < 1) {
+            throw new IllegalArgumentException("app.chat.rate-limit rates and bursts must be positive");
+        }
+        this.redisService = redisService;
+        this.enabled = enabled;
+        this.senderRate = senderRate;
+        this.senderBurst = senderBurst;
+        this.roomRate = roomRate;
+        this.roomBurst = roomBurst;
+        this.globalEnabled = globalEnabled;
+
+        this.senderRejectedLocal = rejectedCounter(meterRegistry, "sender", "local");
+        this.roomRejectedLocal = rejectedCounter(meterRegistry, "room", "local");
+        this.senderRejectedGlobal = rejectedCounter(meterRegistry, "sender", "global");
+        this.roomRejectedGlobal = rejectedCounter(meterRegistry, "room", "global");
+    }
+
+    private static Counter rejectedCounter(MeterRegistry meterRegistry, String limit, String tier) {
+        return Counter.builder("chat.ratelimit.rejected")
+                .tag("limit", limit)
+                .tag("tier", tier)
+                .register(meterRegistry);
+    }
+
+    // The sender's permit is spent even when the room then refuses: the sender did try to send
+    public Decision tryAcquire(String client, String roomId) {
+        if (!enabled) {
+            return Decision.ALLOWED;
+        }
+        long now = System.nanoTime();
+        if (!bucket(senderBuckets, client, senderRate, senderBurst, now).tryAcquire(now)) {
+            senderRejectedLocal.increment();
+            return Decision.SENDER_LIMITED;
+        }
+        if (!bucket(roomBuckets, roomId, roomRate, roomBurst, now).tryAcquire(now)) {
+            roomRejectedLocal.increment();
+            return Decision.ROOM_LIMITED;
+        }
+        return globalEnabled ? tryAcquireGlobal(client, roomId) : Decision.ALLOWED;
+    }
+
+    private Decision tryAcquireGlobal(String client, String roomId) {
+        long result;
+        try {
+            result = redisService.acquireSendPermits(client, roomId,
+                    intervalMicros(senderRate), senderBurst, intervalMicros(roomRate), roomBurst);
+        } catch (RuntimeException e) {
+            // Failures show up in chat.redis{operation=ratelimit}
+            logger.debug("Global rate limit check failed for room {}, allowing the message", roomId, e);
+            return Decision.ALLOWED;
+        }
+        if (result == 1) {
+            senderRejectedGlobal.increment();
+            return Decision.SENDER_LIMITED;
+        }
+        if (result == 2) {
+            roomRejectedGlobal.increment();
+            return Decision.ROOM_LIMITED;
+        }
+        return Decision.ALLOWED;
+    }
+
+    private static TokenBucket bucket(Map<String, TokenBucket> buckets, String key,
+                                      double rate, int burst, long now) {
+        TokenBucket bucket = buckets.get(key);
+        return bucket != null ? bucket : buckets.computeIfAbsent(key, k -> new TokenBucket(rate, burst, now));
+    }
+
+    private static long intervalMicros(double permitsPerSecond) {
+        return Math.max(1, (long) (1_000_000L / permitsPerSecond));
+    }
+
+    // Drops buckets that have refilled completely, so idle senders and rooms cost no memory. A
+    // permit taken from a bucket while it is being dropped is forgotten, which errs towards allowing.
+    @Scheduled(fixedDelayString = "${app.chat.rate-limit.sweep-ms:60000}")
+    public void evictIdleBuckets() {
+        long now = System.nanoTime();
+        senderBuckets.values().removeIf(bucket -> bucket.isFull(now));
+        roomBuckets.values().removeIf(bucket -> bucket.isFull(now));
+    }
+}
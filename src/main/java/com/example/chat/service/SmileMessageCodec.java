@@ -0,0 +1,52 @@
+package com.example.chat.service;
+
+import com.example.chat.model.ChatMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import java.io.IOException;
+
+// Binary JSON (Smile): same data model as JSON, smaller and cheaper to parse
+public class SmileMessageCodec implements MessageCodec {
+
+    public static final String NAME = "smile";
+
+    // Every Smile document starts with ":)\n"
+    private static final byte[] HEADER = {':', ')', '\n'};
+
+    private final ObjectMapper smileMapper;
+
+    public SmileMessageCodec(ObjectMapper objectMapper) {
+        // Keep the application's modules and date formats, only swap the wire format
+        this.smileMapper = objectMapper.copyWith(new SmileFactory());
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(ChatMessage message) {
+        try {
+            return smileMapper.writeValueAsBytes(message);
+        } catch (IOException e) {
+            throw new RuntimeException("Error encoding message as Smile", e);
+        }
+    }
+
+    @Override
+    public ChatMessage decode(byte[] data) {
+        try {
+            return smileMapper.readValue(data, ChatMessage.class);
+        } catch (IOException e) {
+            throw new RuntimeException("Error decoding Smile message", e);
+        }
+    }
+
+    @Override
+    public boolean canDecode(byte[] data) {
+        return data.length >= HEADER.length
+                && data[0] == HEADER[0] && data[1] == HEADER[1] && data[2] == HEADER[2];
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.chat.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Snowflake-style ids: 41 bits of milliseconds since EPOCH, 10 bits of worker id and 12 bits of
+// sequence, rendered as 16 hex digits so string order is creation order. Ids from one worker are
+// strictly increasing; across workers they are ordered to the millisecond.
+public class SnowflakeIdGenerator implements IdGenerator {
+
+    public static final String NAME = "snowflake";
+
+    // 2024-01-01T00:00:00Z, good for about 69 years
+    static final long EPOCH = 1704067200000L;
+    static final int WORKER_BITS = 10;
+    static final int SEQUENCE_BITS = 12;
+    public static final int MAX_WORKER_ID = (1 << WORKER_BITS) - 1;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final long workerBits;
+    // Last issued (timestamp << SEQUENCE_BITS | sequence), advanced with CAS
+    private final AtomicLong state = new AtomicLong();
+
+    public SnowflakeIdGenerator(int workerId) {
+        if (workerId < 0 || workerId > MAX_WORKER_ID) {
+            throw new IllegalArgumentException("Worker id must be between 0 and " + MAX_WORKER_ID + ": " + workerId);
+        }
+        this.workerBits = (long) workerId << SEQUENCE_BITS;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public String nextId() {
+        return toHex(nextLong());
+    }
+
+    public long nextLong() {
+        long now = System.currentTimeMillis() - EPOCH;
+        long current;
+        long next;
+        do {
+            current = state.get();
+            // Within the same millisecond, or with the clock stepped back, keep counting from the
+            // last id; a full sequence carries into the timestamp instead of waiting for the clock
+            next = now > current >>> SEQUENCE_BITS ? now << SEQUENCE_BITS : current + 1;
+        } while (!state.compareAndSet(current, next));
+
+        long timestamp = next >>> SEQUENCE_BITS;
+        long sequence = next & ((1L << SEQUENCE_BITS) - 1);
+        return timestamp << (WORKER_BITS + SEQUENCE_BITS) | workerBits | sequence;
+    }
+
+    // Creation time of an id from this generator, in epoch millis
+    public static long timestampOf(String id) {
+        return (Long.parseUnsignedLong(id, 16) >>> (WORKER_BITS + SEQUENCE_BITS)) + EPOCH;
+    }
+
+    private static String toHex(long value) {
+        char[] chars = new char[16];
+        for (int i = 15; i >= 0; i--) {
+            chars[i] = HEX[(int) (value & 0xf)];
+            value >>>= 4;
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.chat.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Token bucket kept as a single theoretical arrival time (GCRA): each permit moves it one interval
+// later, and a permit is refused when that would put it more than burst intervals past now. Refill
+// is implied by the clock, so there is no timer, and a permit is one CAS on one long.
+// Times are System.nanoTime() values and are compared by difference to stay overflow safe.
+public final class TokenBucket {
+
+    private final long intervalNanos;
+    private final long capacityNanos;
+    private final AtomicLong arrival;
+
+    public TokenBucket(double permitsPerSecond, int burst, long nowNanos) {
+        if (permitsPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Rate and burst must be positive");
+        }
+        this.intervalNanos = Math.max(1, (long) (1_000_000_000L / permitsPerSecond));
+        this.capacityNanos = intervalNanos * burst;
+        this.arrival = new AtomicLong(nowNanos);
+    }
+
+    public boolean tryAcquire(long nowNanos) {
+        while (true) {
+            long current = arrival.get();
+            long next = (current - nowNanos > 0 ? current : nowNanos) + intervalNanos;
+            if (next - nowNanos > capacityNanos) {
+                return false;
+            }
+            if (arrival.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    // A full bucket behaves exactly like a new one, so it can be dropped
+    public boolean isFull(long nowNanos) {
+        return arrival.get() - nowNanos <= 0;
+    }
+}
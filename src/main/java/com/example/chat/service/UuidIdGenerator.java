@@ -0,0 +1,19 @@
+package com.example.chat.service;
+
+import java.util.UUID;
+
+// Random ids as used before ids were time-ordered; no ordering, no worker id to configure
+public class UuidIdGenerator implements IdGenerator {
+
+    public static final String NAME = "uuid";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public String nextId() {
+        return UUID.randomUUID().toString();
+    }
+}
@@ -0,0 +1,53 @@
+-- Appends messages to a room's history, trims it, bumps the room index and publishes the
+-- messages to the other nodes, all in one atomic step.
+-- KEYS[1] = room:{id}:messages, KEYS[2] = rooms:index, KEYS[3] = room:{id}:seq
+-- ARGV[1] = history limit, ARGV[2] = room id, ARGV[3] = activity score,
+-- ARGV[4] = pub/sub channel, ARGV[5] = origin node id, ARGV[6] = archive batch (0 = no archive),
+-- ARGV[7..] = encoded messages
+-- The seq counter holds the total number of messages ever appended, so the absolute position of
+-- list index i is seq - LLEN + 1 + i. History cursors are these positions.
+-- Returns {position of the last appended message}, followed by the position of the first trimmed
+-- entry and the trimmed entries when they are to be archived. With an archive the list may grow up
+-- to archive batch entries past the limit, so trims come in blocks of at least that size.
+if redis.call('EXISTS', KEYS[3]) == 0 then
+    redis.call('SET', KEYS[3], redis.call('LLEN', KEYS[1]))
+end
+redis.call('RPUSH', KEYS[1], unpack(ARGV, 7))
+local count = #ARGV - 6
+local seq = redis.call('INCRBY', KEYS[3], count)
+local result = {seq}
+local archiveBatch = tonumber(ARGV[6])
+if archiveBatch > 0 then
+    local length = redis.call('LLEN', KEYS[1])
+    local excess = length - tonumber(ARGV[1])
+    if excess >= archiveBatch then
+        result[2] = seq - length + 1
+        local trimmed = redis.call('LRANGE', KEYS[1], 0, excess - 1)
+        for i = 1, #trimmed do
+            result[i + 2] = trimmed[i]
+        end
+        redis.call('LTRIM', KEYS[1], excess, -1)
+    end
+else
+    redis.call('LTRIM', KEYS[1], -tonumber(ARGV[1]), -1)
+end
+-- Only ever raised: imported backlogs carry old timestamps and must not sink an active room
+local score = redis.call('ZSCORE', KEYS[2], ARGV[2])
+if score and tonumber(score) < tonumber(ARGV[3]) then
+    redis.call('ZADD', KEYS[2], ARGV[3], ARGV[2])
+end
+
+-- Relay frame (see RelayFrame): "<origin>\n<position>\n<encoded message>" for one message; a batch
+-- goes out in one PUBLISH as "<origin>\n<first position>\n*<count>\n" and "<length>\n<message>" each
+local first = seq - count + 1
+if count == 1 then
+    redis.call('PUBLISH', ARGV[4], ARGV[5] .. '\n' .. first .. '\n' .. ARGV[7])
+else
+    local frame = {ARGV[5], '\n', first, '\n*', count, '\n'}
+    for i = 7, #ARGV do
+        frame[#frame + 1] = #ARGV[i] .. '\n'
+        frame[#frame + 1] = ARGV[i]
+    end
+    redis.call('PUBLISH', ARGV[4], table.concat(frame))
+end
+return result
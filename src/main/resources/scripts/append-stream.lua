@@ -0,0 +1,51 @@
+-- Stream counterpart of append-messages.lua. Each message becomes an entry whose id is its
+-- absolute position ("<position>-0"), so history cursors mean the same with either backend.
+-- Fields: "i" = message id (looked up by find-message.lua), "m" = encoded message.
+-- Without an archive, trimming is approximate (MAXLEN ~), which keeps at least the history limit,
+-- and happens once per call. With one, entries past the limit are trimmed exactly once there are at
+-- least archive batch of them, and returned as in append-messages.lua. Relay frames are built as in
+-- append-messages.lua.
+-- KEYS[1] = room:{id}:stream, KEYS[2] = rooms:index, KEYS[3] = room:{id}:seq
+-- ARGV[1..6] as in append-messages.lua, ARGV[7..] = message id, encoded message, message id, ...
+local position = tonumber(redis.call('GET', KEYS[3]) or '0')
+local first = position + 1
+local count = (#ARGV - 6) / 2
+local frame = {ARGV[5], '\n', first, '\n*', count, '\n'}
+for i = 7, #ARGV, 2 do
+    position = position + 1
+    redis.call('XADD', KEYS[1], position .. '-0', 'i', ARGV[i], 'm', ARGV[i + 1])
+    frame[#frame + 1] = #ARGV[i + 1] .. '\n'
+    frame[#frame + 1] = ARGV[i + 1]
+end
+local result = {position}
+local archiveBatch = tonumber(ARGV[6])
+if archiveBatch > 0 then
+    local excess = redis.call('XLEN', KEYS[1]) - tonumber(ARGV[1])
+    if excess >= archiveBatch then
+        local trimmed = redis.call('XRANGE', KEYS[1], '-', '+', 'COUNT', excess)
+        result[2] = tonumber(string.match(trimmed[1][1], '^%d+'))
+        for i = 1, #trimmed do
+            local fields = trimmed[i][2]
+            for f = 1, #fields, 2 do
+                if fields[f] == 'm' then
+                    result[#result + 1] = fields[f + 1]
+                end
+            end
+        end
+        redis.call('XTRIM', KEYS[1], 'MAXLEN', ARGV[1])
+    end
+else
+    redis.call('XTRIM', KEYS[1], 'MAXLEN', '~', ARGV[1])
+end
+if count == 1 then
+    redis.call('PUBLISH', ARGV[4], ARGV[5] .. '\n' .. first .. '\n' .. ARGV[8])
+else
+    redis.call('PUBLISH', ARGV[4], table.concat(frame))
+end
+redis.call('SET', KEYS[3], position)
+-- Only ever raised: imported backlogs carry old timestamps and must not sink an active room
+local score = redis.call('ZSCORE', KEYS[2], ARGV[2])
+if score and tonumber(score) < tonumber(ARGV[3]) then
+    redis.call('ZADD', KEYS[2], ARGV[3], ARGV[2])
+end
+return result
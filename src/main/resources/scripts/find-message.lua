@@ -0,0 +1,29 @@
+-- Position of a message in a room's stream, found by message id. Scans back from the newest
+-- entry, so the cost is proportional to how far back the message is.
+-- KEYS[1] = room:{id}:stream
+-- ARGV[1] = message id, ARGV[2] = most entries to scan
+-- Returns the position, or 0 when the message is not among the scanned entries
+local step = 100
+local remaining = tonumber(ARGV[2])
+local newest = '+'
+while remaining > 0 do
+    local entries = redis.call('XREVRANGE', KEYS[1], newest, '-', 'COUNT', math.min(step, remaining))
+    for i = 1, #entries do
+        local fields = entries[i][2]
+        for f = 1, #fields, 2 do
+            if fields[f] == 'i' and fields[f + 1] == ARGV[1] then
+                return tonumber(string.match(entries[i][1], '^%d+'))
+            end
+        end
+    end
+    if #entries < math.min(step, remaining) then
+        return 0
+    end
+    remaining = remaining - #entries
+    local oldest = tonumber(string.match(entries[#entries][1], '^%d+'))
+    if oldest <= 1 then
+        return 0
+    end
+    newest = (oldest - 1) .. '-0'
+end
+return 0
@@ -0,0 +1,29 @@
+-- Adds one node's message counts to the current activity bucket and writes each room's last
+-- activity back to its hash. At most once per interval across all nodes, it then rebuilds the
+-- trending ranking as the sum of the window's buckets.
+-- KEYS[1] = rooms:trending, KEYS[2] = rooms:trending:lock, KEYS[3] = current bucket,
+-- KEYS[4..2 + ARGV[3]] = the older buckets of the window, then the room:{id} hash of each room
+-- ARGV[1] = bucket ttl (ms), ARGV[2] = rebuild interval (ms, 0 = leave the ranking alone),
+-- ARGV[3] = number of bucket keys,
+-- ARGV[4..] = room id, message count, lastActivity triples, in the order of the room keys
+-- Returns 1 when this call rebuilt the ranking
+local buckets = tonumber(ARGV[3])
+local room = 2 + buckets
+for i = 4, #ARGV, 3 do
+    room = room + 1
+    redis.call('ZINCRBY', KEYS[3], ARGV[i + 1], ARGV[i])
+    -- Rooms that were deleted meanwhile must not come back as a bare hash
+    if redis.call('EXISTS', KEYS[room]) == 1 then
+        redis.call('HSET', KEYS[room], 'lastActivity', ARGV[i + 2])
+    end
+end
+if #ARGV > 3 then
+    redis.call('PEXPIRE', KEYS[3], ARGV[1])
+end
+
+if ARGV[2] == '0' or not redis.call('SET', KEYS[2], '1', 'NX', 'PX', ARGV[2]) then
+    return 0
+end
+redis.call('ZUNIONSTORE', KEYS[1], buckets, unpack(KEYS, 3, 2 + buckets))
+redis.call('PEXPIRE', KEYS[1], ARGV[1])
+return 1
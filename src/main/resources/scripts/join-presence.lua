@@ -0,0 +1,20 @@
+-- Marks a user present in a room through this node.
+-- KEYS[1] = room:{id}:presence, KEYS[2] = room:{id}:presence:{username}
+-- ARGV[1] = username, ARGV[2] = node id, ARGV[3] = now (epoch millis), ARGV[4] = presence ttl (ms)
+-- KEYS[2] scores each node holding a session of the user by that node's last heartbeat, so the
+-- sessions of a crashed node stop counting after the TTL.
+-- Returns 1 when no other node has a live session of the user in the room
+local now = tonumber(ARGV[3])
+redis.call('ZREMRANGEBYSCORE', KEYS[2], '-inf', now - tonumber(ARGV[4]))
+local others = redis.call('ZCARD', KEYS[2])
+if redis.call('ZSCORE', KEYS[2], ARGV[2]) then
+    others = others - 1
+end
+redis.call('ZADD', KEYS[2], now, ARGV[2])
+redis.call('PEXPIRE', KEYS[2], ARGV[4])
+redis.call('ZADD', KEYS[1], now, ARGV[1])
+redis.call('PEXPIRE', KEYS[1], ARGV[4])
+if others == 0 then
+    return 1
+end
+return 0
@@ -0,0 +1,10 @@
+-- Claims or renews a Snowflake worker id for one node.
+-- KEYS[1] = chat:worker:{id}
+-- ARGV[1] = node id, ARGV[2] = lease ttl (ms)
+-- Returns 1 when the id is now held by this node, 0 when another node holds it.
+local owner = redis.call('GET', KEYS[1])
+if owner and owner ~= ARGV[1] then
+    return 0
+end
+redis.call('SET', KEYS[1], ARGV[1], 'PX', ARGV[2])
+return 1
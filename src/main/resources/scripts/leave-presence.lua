@@ -0,0 +1,12 @@
+-- Removes this node's sessions of a user from a room, and the user once no node has one left.
+-- KEYS[1] = room:{id}:presence, KEYS[2] = room:{id}:presence:{username}
+-- ARGV[1] = username, ARGV[2] = node id, ARGV[3] = now (epoch millis), ARGV[4] = presence ttl (ms)
+-- Returns 1 when the user left the room on every node
+redis.call('ZREM', KEYS[2], ARGV[2])
+redis.call('ZREMRANGEBYSCORE', KEYS[2], '-inf', tonumber(ARGV[3]) - tonumber(ARGV[4]))
+if redis.call('ZCARD', KEYS[2]) > 0 then
+    return 0
+end
+redis.call('DEL', KEYS[2])
+redis.call('ZREM', KEYS[1], ARGV[1])
+return 1
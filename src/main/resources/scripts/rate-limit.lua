@@ -0,0 +1,32 @@
+-- Takes one permit from the sender's and then the room's token bucket, shared by all nodes.
+-- KEYS[1] = ratelimit:sender:{name}, KEYS[2] = ratelimit:room:{id}
+-- ARGV[1] = sender interval (micros per permit), ARGV[2] = sender burst,
+-- ARGV[3] = room interval, ARGV[4] = room burst
+-- Each key holds its bucket's theoretical arrival time (GCRA) in micros of Redis server time, so
+-- node clocks do not matter; a full bucket is the same as a missing key, hence the expiry.
+-- Returns 0 when the message may be sent, 1 when the sender and 2 when the room is over its limit.
+redis.replicate_commands()
+local time = redis.call('TIME')
+local now = tonumber(time[1]) * 1000000 + tonumber(time[2])
+
+local function acquire(key, interval, burst)
+    local tat = tonumber(redis.call('GET', key)) or now
+    if tat < now then
+        tat = now
+    end
+    local next = tat + interval
+    if next - now > interval * burst then
+        return false
+    end
+    -- %.0f keeps all digits; Lua would print a number this large in exponent form
+    redis.call('SET', key, string.format('%.0f', next), 'PX', math.max(1, math.ceil((next - now) / 1000)))
+    return true
+end
+
+if not acquire(KEYS[1], tonumber(ARGV[1]), tonumber(ARGV[2])) then
+    return 1
+end
+if not acquire(KEYS[2], tonumber(ARGV[3]), tonumber(ARGV[4])) then
+    return 2
+end
+return 0
@@ -0,0 +1,30 @@
+-- Reads one page of a room's history by absolute position (see append-messages.lua).
+-- KEYS[1] = room:{id}:messages, KEYS[2] = room:{id}:seq
+-- ARGV[1] = 'latest' | 'before' | 'after', ARGV[2] = cursor position, ARGV[3] = page size
+-- Returns {first retained position, position of the first returned entry, entries...}
+local length = redis.call('LLEN', KEYS[1])
+local seq = tonumber(redis.call('GET', KEYS[2]) or length)
+if seq < length then
+    seq = length
+end
+local first = seq - length + 1
+local limit = tonumber(ARGV[3])
+local from, to
+if ARGV[1] == 'before' then
+    to = math.min(tonumber(ARGV[2]) - 1, seq)
+    from = math.max(first, to - limit + 1)
+elseif ARGV[1] == 'after' then
+    from = math.max(tonumber(ARGV[2]) + 1, first)
+    to = math.min(seq, from + limit - 1)
+else
+    to = seq
+    from = math.max(first, seq - limit + 1)
+end
+local result = {first, from}
+if from <= to then
+    local entries = redis.call('LRANGE', KEYS[1], from - first, to - first)
+    for i = 1, #entries do
+        result[i + 2] = entries[i]
+    end
+end
+return result
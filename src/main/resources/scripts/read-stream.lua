@@ -0,0 +1,48 @@
+-- Stream counterpart of read-history.lua, with the same arguments and reply.
+-- KEYS[1] = room:{id}:stream, KEYS[2] = room:{id}:seq
+-- ARGV[1] = 'latest' | 'before' | 'after', ARGV[2] = cursor position, ARGV[3] = page size
+-- Returns {first retained position, position of the first returned entry, entries...}
+local function position(entry)
+    return tonumber(string.match(entry[1], '^%d+'))
+end
+
+local seq = tonumber(redis.call('GET', KEYS[2]) or '0')
+local head = redis.call('XRANGE', KEYS[1], '-', '+', 'COUNT', 1)
+local first = #head > 0 and position(head[1]) or seq + 1
+local limit = tonumber(ARGV[3])
+local cursor = tonumber(ARGV[2])
+local entries = {}
+local from = first
+if ARGV[1] == 'after' then
+    -- XREAD returns only entries after the given id
+    local reply = redis.call('XREAD', 'COUNT', limit, 'STREAMS', KEYS[1], math.max(cursor, 0) .. '-0')
+    if reply then
+        entries = reply[1][2]
+    end
+    from = math.max(cursor + 1, first)
+else
+    local newest = '+'
+    if ARGV[1] == 'before' then
+        newest = (cursor - 1) .. '-0'
+    end
+    if ARGV[1] ~= 'before' or cursor > 1 then
+        local newestFirst = redis.call('XREVRANGE', KEYS[1], newest, '-', 'COUNT', limit)
+        for i = #newestFirst, 1, -1 do
+            entries[#entries + 1] = newestFirst[i]
+        end
+    end
+end
+if #entries > 0 then
+    from = position(entries[1])
+end
+
+local result = {first, from}
+for i = 1, #entries do
+    local fields = entries[i][2]
+    for f = 1, #fields, 2 do
+        if fields[f] == 'm' then
+            result[#result + 1] = fields[f + 1]
+        end
+    end
+end
+return result
@@ -0,0 +1,14 @@
+-- One ZSCAN step over a room's presence set, keeping only members seen recently enough.
+-- KEYS[1] = room:{id}:presence
+-- ARGV[1] = scan cursor, ARGV[2] = oldest live score (epoch millis), ARGV[3] = COUNT hint
+-- Returns {next cursor, members...}
+local reply = redis.call('ZSCAN', KEYS[1], ARGV[1], 'COUNT', ARGV[3])
+local live = {reply[1]}
+local entries = reply[2]
+local since = tonumber(ARGV[2])
+for i = 1, #entries, 2 do
+    if tonumber(entries[i + 1]) >= since then
+        live[#live + 1] = entries[i]
+    end
+end
+return live
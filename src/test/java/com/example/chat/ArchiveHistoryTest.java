@@ -0,0 +1,128 @@
+package com.example.chat;
+
+import com.example.chat.model.ChatMessage;
+import com.example.chat.model.CursorPage;
+import com.example.chat.service.RedisService;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import redis.embedded.RedisServer;
+
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Pages through history that has mostly been trimmed from Redis into the archive
+@SpringBootTest(properties = {"app.chat.message-history-limit=20", "app.chat.archive.enabled=true",
+        "app.chat.archive.batch=10", "app.chat.rate-limit.enabled=false"})
+public class ArchiveHistoryTest {
+
+    private static RedisServer redisServer;
+    private static Path archiveDirectory;
+
+    @Autowired
+    private RedisService redisService;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @DynamicPropertySource
+    static void startRedis(DynamicPropertyRegistry registry) throws Exception {
+        int redisPort;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            redisPort = socket.getLocalPort();
+        }
+        redisServer = new RedisServer(redisPort);
+        redisServer.start();
+        registry.add("spring.data.redis.port", () -> redisPort);
+        archiveDirectory = Files.createTempDirectory("chat-archive");
+        registry.add("app.chat.archive.dir", () -> archiveDirectory.toString());
+    }
+
+    @AfterAll
+    static void stopRedis() throws Exception {
+        redisServer.stop();
+    }
+
+    @Test
+    void testPagesBackThroughArchivedHistory() throws Exception {
+        // Given
+        List<ChatMessage> sent = save("archive-room-1", 100);
+
+        // When
+        List<ChatMessage> paged = new ArrayList<>();
+        String cursor = null;
+        do {
+            CursorPage<ChatMessage> page = redisService.getMessageHistory("archive-room-1", cursor, null, 15);
+            paged.addAll(0, page.getItems());
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+
+        // Then
+        long length = stringRedisTemplate.opsForList().size("room:archive-room-1:messages");
+        assertTrue(length >= 20 && length < 30, "list length " + length);
+        assertEquals(contents(sent), contents(paged));
+    }
+
+    @Test
+    void testPagesForwardFromArchiveIntoRedis() throws Exception {
+        // Given
+        List<ChatMessage> sent = save("archive-room-2", 60);
+
+        // When
+        CursorPage<ChatMessage> first = redisService.getMessageHistory("archive-room-2", null, "0", 25);
+        CursorPage<ChatMessage> across = redisService.getMessageHistory("archive-room-2", null, "30", 25);
+
+        // Then
+        assertEquals(contents(sent.subList(0, 25)), contents(first.getItems()));
+        assertEquals(contents(sent.subList(30, 55)), contents(across.getItems()));
+    }
+
+    @Test
+    void testDeleteRoomRemovesArchive() throws Exception {
+        // Given
+        save("archive-room-3", 50);
+        assertTrue(Files.exists(archiveDirectory.resolve("archive-room-3")));
+
+        // When
+        redisService.deleteRoom("archive-room-3");
+
+        // Then
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (System.currentTimeMillis() < deadline && Files.exists(archiveDirectory.resolve("archive-room-3"))) {
+            Thread.sleep(20);
+        }
+        assertFalse(Files.exists(archiveDirectory.resolve("archive-room-3")));
+        assertTrue(redisService.getMessageHistory("archive-room-3", null, "0", 10).getItems().isEmpty());
+    }
+
+    // Archive writes are asynchronous: wait until every message can be read back
+    private List<ChatMessage> save(String roomId, int count) throws Exception {
+        List<ChatMessage> sent = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ChatMessage message = new ChatMessage("m" + i, "user1", roomId, ChatMessage.MessageType.CHAT);
+            redisService.saveMessage(message, redisService.encodeMessage(message)).get(10, TimeUnit.SECONDS);
+            sent.add(message);
+        }
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (System.currentTimeMillis() < deadline
+                && redisService.getMessageHistory(roomId, null, "0", count).getItems().size() < count) {
+            Thread.sleep(20);
+        }
+        return sent;
+    }
+
+    private static List<String> contents(List<ChatMessage> messages) {
+        return messages.stream().map(ChatMessage::getContent).collect(Collectors.toList());
+    }
+}
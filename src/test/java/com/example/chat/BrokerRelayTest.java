@@ -0,0 +1,147 @@
+package com.example.chat;
+
+import com.example.chat.model.ChatMessage;
+import com.example.chat.service.ChatService;
+import com.example.chat.service.MessageCodecs;
+import com.example.chat.service.RedisService;
+import org.apache.activemq.artemis.core.config.impl.ConfigurationImpl;
+import org.apache.activemq.artemis.core.server.embedded.EmbeddedActiveMQ;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.messaging.simp.stomp.StompBrokerRelayMessageHandler;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+import org.springframework.web.socket.sockjs.client.SockJsClient;
+import org.springframework.web.socket.sockjs.client.WebSocketTransport;
+
+import java.lang.reflect.Type;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+// Runs the application in relay mode against an embedded STOMP broker
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"app.chat.broker.mode=relay", "app.chat.broker.heartbeat-ms=2000"})
+public class BrokerRelayTest {
+
+    private static EmbeddedActiveMQ broker;
+
+    @MockBean
+    private RedisService redisService;
+
+    @MockBean
+    private RedisMessageListenerContainer messageListenerContainer;
+
+    @Autowired
+    private ChatService chatService;
+
+    @Autowired
+    private MessageCodecs messageCodecs;
+
+    @Autowired
+    private StompBrokerRelayMessageHandler relayHandler;
+
+    @LocalServerPort
+    private int port;
+
+    @DynamicPropertySource
+    static void startBroker(DynamicPropertyRegistry registry) throws Exception {
+        int brokerPort;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            brokerPort = socket.getLocalPort();
+        }
+        broker = new EmbeddedActiveMQ().setConfiguration(new ConfigurationImpl()
+                .setPersistenceEnabled(false)
+                .setSecurityEnabled(false)
+                .addAcceptorConfiguration("stomp",
+                        "tcp://127.0.0.1:" + brokerPort + "?protocols=STOMP;multicastPrefix=/topic/"));
+        broker.start();
+        registry.add("app.chat.broker.relay.port", () -> brokerPort);
+    }
+
+    @AfterAll
+    static void stopBroker() throws Exception {
+        broker.stop();
+    }
+
+    @Test
+    void testBrokerDeliversToEverySubscriber() throws Exception {
+        // Given
+        when(redisService.encodeMessage(any(ChatMessage.class)))
+                .thenAnswer(invocation -> messageCodecs.encode(invocation.getArgument(0)));
+        when(redisService.saveMessage(any(ChatMessage.class), any(byte[].class)))
+                .thenReturn(CompletableFuture.completedFuture(1L));
+        waitForBroker();
+        BlockingQueue<String> first = new LinkedBlockingQueue<>();
+        BlockingQueue<String> second = new LinkedBlockingQueue<>();
+        StompSession firstSession = subscribe("/topic/room/room-1", first);
+        StompSession secondSession = subscribe("/topic/room/room-1", second);
+
+        // When
+        chatService.sendMessage(new ChatMessage("Hello", "user1", "room-1", ChatMessage.MessageType.CHAT));
+
+        // Then
+        String received = first.poll(10, TimeUnit.SECONDS);
+        assertNotNull(received);
+        assertTrue(received.contains("\"content\":\"Hello\""));
+        assertEquals(received, second.poll(10, TimeUnit.SECONDS));
+
+        firstSession.disconnect();
+        secondSession.disconnect();
+    }
+
+    private void waitForBroker() throws InterruptedException {
+        for (int i = 0; i < 100 && !relayHandler.isBrokerAvailable(); i++) {
+            Thread.sleep(100);
+        }
+        assertTrue(relayHandler.isBrokerAvailable());
+    }
+
+    private StompSession subscribe(String destination, BlockingQueue<String> received) throws Exception {
+        WebSocketStompClient client = new WebSocketStompClient(
+                new SockJsClient(List.of(new WebSocketTransport(new StandardWebSocketClient()))));
+        // Receipts confirm the broker has registered the subscription before anything is sent
+        ThreadPoolTaskScheduler receiptScheduler = new ThreadPoolTaskScheduler();
+        receiptScheduler.initialize();
+        client.setTaskScheduler(receiptScheduler);
+        StompSession session = client.connectAsync("ws://localhost:" + port + "/ws", new StompSessionHandlerAdapter() {})
+                .get(10, TimeUnit.SECONDS);
+        StompHeaders headers = new StompHeaders();
+        headers.setDestination(destination);
+        BlockingQueue<Boolean> subscribed = new LinkedBlockingQueue<>();
+        session.setAutoReceipt(true);
+        session.subscribe(headers, new StompFrameHandler() {
+            @Override
+            public Type getPayloadType(StompHeaders headers) {
+                return byte[].class;
+            }
+
+            @Override
+            public void handleFrame(StompHeaders headers, Object payload) {
+                received.add(new String((byte[]) payload, StandardCharsets.UTF_8));
+            }
+        }).addReceiptTask(() -> subscribed.add(true));
+        assertNotNull(subscribed.poll(10, TimeUnit.SECONDS));
+        return session;
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.chat;
+
+import com.example.chat.config.NodeIdentity;
+import com.example.chat.service.ChatMessageRelay;
+import com.example.chat.service.HistoryCache;
+import com.example.chat.service.JsonMessageCodec;
+import com.example.chat.service.MessageCodecs;
+import com.example.chat.service.MessageDispatcher;
+import com.example.chat.service.RedisService;
+import com.example.chat.service.RelayFrame;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.connection.DefaultMessage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class ChatMessageRelayTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private MessageDispatcher messageDispatcher;
+    private HistoryCache historyCache;
+    private ChatMessageRelay relay;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        messageDispatcher = mock(MessageDispatcher.class);
+        historyCache = mock(HistoryCache.class);
+        MessageCodecs codecs = new MessageCodecs(new ObjectMapper(), JsonMessageCodec.NAME);
+        // Two batches of two frames
+        relay = new ChatMessageRelay(mock(RedisService.class), messageDispatcher, codecs,
+                new NodeIdentity("node-1"), historyCache, meterRegistry, 2, 2, "simple");
+    }
+
+    @AfterEach
+    void tearDown() {
+        relay.stop();
+    }
+
+    @Test
+    void testFullQueueDropsOldestFrames() {
+        // Given: the dispatcher is not running yet, so frames pile up
+        for (int position = 1; position <= 7; position++) {
+            relay.onMessage(frame(position), null);
+        }
+
+        // When
+        relay.start();
+
+        // Then
+        ArgumentCaptor<byte[]> payloads = ArgumentCaptor.forClass(byte[].class);
+        verify(messageDispatcher, timeout(5000).times(4)).deliverLocally(eq("room-1"), payloads.capture());
+        List<String> delivered = payloads.getAllValues().stream()
+                .map(payload -> new String(payload, StandardCharsets.UTF_8)).collect(Collectors.toList());
+        assertEquals(List.of(content(4), content(5), content(6), content(7)), delivered);
+        assertEquals(3, meterRegistry.get("chat.relay.dropped").counter().count());
+    }
+
+    @Test
+    void testRoomDeletedOnAnotherNodeDropsCachedHistory() {
+        // Given
+        relay.onMessage(message(RelayFrame.roomDeleted("node-2")), null);
+
+        // When
+        relay.start();
+
+        // Then
+        verify(historyCache, timeout(5000)).invalidate("room-1");
+        verify(messageDispatcher, never()).deliverLocally(anyString(), any(byte[].class));
+    }
+
+    private static DefaultMessage frame(long position) {
+        return message(("node-2\n" + position + "\n" + content(position)).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static DefaultMessage message(byte[] body) {
+        return new DefaultMessage((ChatMessageRelay.ROOM_CHANNEL_PREFIX + "room-1").getBytes(StandardCharsets.UTF_8), body);
+    }
+
+    private static String content(long position) {
+        return "{\"content\":\"m" + position + "\"}";
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.chat;
+
+import com.example.chat.service.ChatMetrics;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChatMetricsTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private ChatMetrics chatMetrics;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        chatMetrics = new ChatMetrics(meterRegistry, 2);
+    }
+
+    @Test
+    void testRoomRatesCoverOnlyTheBusiestRooms() {
+        // Given
+        long start = System.nanoTime();
+        for (int i = 0; i < 30; i++) {
+            chatMetrics.messageSent("room-busy", start, true);
+        }
+        for (int i = 0; i < 20; i++) {
+            chatMetrics.messageSent("room-warm", start, true);
+        }
+        chatMetrics.messageSent("room-quiet", start, true);
+
+        // When
+        chatMetrics.publishRoomRates();
+
+        // Then
+        assertEquals(Set.of("room-busy", "room-warm"), ratedRooms());
+        double busy = meterRegistry.get("chat.room.messages.rate").tag("room", "room-busy").gauge().value();
+        double warm = meterRegistry.get("chat.room.messages.rate").tag("room", "room-warm").gauge().value();
+        assertTrue(busy > warm && warm > 0);
+        assertEquals(51, meterRegistry.get("chat.send").tag("outcome", "stored").timer().count());
+    }
+
+    @Test
+    void testIdleRoomsLoseTheirRate() {
+        // Given
+        chatMetrics.messageSent("room-1", System.nanoTime(), true);
+        chatMetrics.publishRoomRates();
+
+        // When: nothing sent during the next interval
+        chatMetrics.publishRoomRates();
+
+        // Then
+        assertTrue(ratedRooms().isEmpty());
+    }
+
+    @Test
+    void testRedisOperationsAreTimedByOutcome() {
+        // When
+        String value = chatMetrics.timeRedis("room.get", () -> "room");
+        assertThrows(IllegalStateException.class, () -> chatMetrics.timeRedis("room.get", () -> {
+            throw new IllegalStateException("Redis unavailable");
+        }));
+
+        // Then
+        assertEquals("room", value);
+        Timer success = meterRegistry.get("chat.redis").tags("operation", "room.get", "outcome", "success").timer();
+        Timer error = meterRegistry.get("chat.redis").tags("operation", "room.get", "outcome", "error").timer();
+        assertEquals(1, success.count());
+        assertEquals(1, error.count());
+    }
+
+    private Set<String> ratedRooms() {
+        return meterRegistry.find("chat.room.messages.rate").gauges().stream()
+                .map(Gauge::getId)
+                .map(id -> id.getTag("room"))
+                .collect(Collectors.toSet());
+    }
+}
@@ -2,24 +2,35 @@ package com.example.chat;
 
 import com.example.chat.model.ChatMessage;
 import com.example.chat.model.ChatRoom;
+import com.example.chat.model.CursorPage;
+import com.example.chat.service.ChatMetrics;
 import com.example.chat.service.ChatService;
+import com.example.chat.service.IdGenerator;
+import com.example.chat.service.MessageDispatcher;
+import com.example.chat.service.PresenceTracker;
 import com.example.chat.service.RedisService;
+import com.example.chat.service.RoomActivityTracker;
+import com.example.chat.service.RoomUserCounts;
+import com.example.chat.service.SendRateLimiter;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 
 import java.util.Arrays;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -29,7 +40,25 @@ public class ChatServiceTest {
     private RedisService redisService;
 
     @Mock
-    private SimpMessagingTemplate messagingTemplate;
+    private MessageDispatcher messageDispatcher;
+
+    @Mock
+    private PresenceTracker presenceTracker;
+
+    @Mock
+    private RoomUserCounts roomUserCounts;
+
+    @Mock
+    private IdGenerator idGenerator;
+
+    @Mock
+    private ChatMetrics chatMetrics;
+
+    @Mock
+    private SendRateLimiter sendRateLimiter;
+
+    @Mock
+    private RoomActivityTracker roomActivityTracker;
 
     @InjectMocks
     private ChatService chatService;
@@ -46,6 +75,7 @@ public class ChatServiceTest {
     @Test
     void testCreateRoom() {
         // Given
+        when(idGenerator.nextId()).thenReturn("0123456789abcdef");
         when(redisService.createRoom(any(ChatRoom.class))).thenReturn(testRoom);
 
         // When
@@ -53,6 +83,7 @@ public class ChatServiceTest {
 
         // Then
         assertNotNull(result);
+        assertEquals("0123456789abcdef", result.getId());
         assertEquals("Test Room", result.getName());
         assertEquals("A test chat room", result.getDescription());
         verify(redisService, times(1)).createRoom(any(ChatRoom.class));
@@ -74,37 +105,116 @@ public class ChatServiceTest {
     }
 
     @Test
-    void testGetAllRooms() {
+    void testGetRooms() {
         // Given
-        Set<String> rooms = new HashSet<>(Arrays.asList("room1", "room2", "room3"));
-        when(redisService.getAllRooms()).thenReturn(rooms);
+        CursorPage<String> rooms = new CursorPage<>(Arrays.asList("room1", "room2", "room3"), "1700000000000:1");
+        when(redisService.getRooms(null, 3)).thenReturn(rooms);
 
         // When
-        Set<String> result = chatService.getAllRooms();
+        CursorPage<String> result = chatService.getRooms(null, 3);
 
         // Then
         assertNotNull(result);
-        assertEquals(3, result.size());
-        assertTrue(result.contains("room1"));
-        assertTrue(result.contains("room2"));
-        assertTrue(result.contains("room3"));
-        verify(redisService, times(1)).getAllRooms();
+        assertEquals(3, result.getItems().size());
+        assertTrue(result.getItems().contains("room1"));
+        assertTrue(result.getItems().contains("room2"));
+        assertTrue(result.getItems().contains("room3"));
+        assertEquals("1700000000000:1", result.getNextCursor());
+        verify(redisService, times(1)).getRooms(null, 3);
     }
 
     @Test
     void testSendMessage() {
         // Given
-        doNothing().when(redisService).saveMessage(any(ChatMessage.class));
-        doNothing().when(messagingTemplate).convertAndSend(anyString(), any(ChatMessage.class));
-        doNothing().when(redisService).publishMessage(anyString(), any(ChatMessage.class));
+        byte[] encoded = "{}".getBytes();
+        when(redisService.encodeMessage(any(ChatMessage.class))).thenReturn(encoded);
+        when(redisService.saveMessage(any(ChatMessage.class), any(byte[].class)))
+                .thenReturn(CompletableFuture.completedFuture(1L));
+        doNothing().when(messageDispatcher).dispatch(any(ChatMessage.class), any(byte[].class));
 
         // When
         chatService.sendMessage(testMessage);
 
         // Then
-        verify(redisService, times(1)).saveMessage(testMessage);
-        verify(messagingTemplate, times(1)).convertAndSend("/topic/room/test-room-1", testMessage);
-        verify(redisService, times(1)).publishMessage("chat:room:test-room-1", testMessage);
+        verify(redisService, times(1)).saveMessage(testMessage, encoded);
+        verify(messageDispatcher, times(1)).dispatch(testMessage, encoded);
+        verify(messageDispatcher, never()).deliverLocally(any(ChatMessage.class));
+        verify(chatMetrics, times(1)).messageSent(eq("test-room-1"), anyLong(), eq(true));
+        verify(roomActivityTracker, times(1)).messageSent("test-room-1");
+    }
+
+    @Test
+    void testSendMessageReportsFailedSave() {
+        // Given
+        testMessage.setId("message-1");
+        when(idGenerator.nextId()).thenReturn("notice-1");
+        CompletableFuture<Long> saved = new CompletableFuture<>();
+        when(redisService.encodeMessage(any(ChatMessage.class))).thenReturn("{}".getBytes());
+        when(redisService.saveMessage(any(ChatMessage.class), any(byte[].class))).thenReturn(saved);
+
+        // When: the local broadcast happens before Redis answers, then the write fails
+        chatService.sendMessage(testMessage);
+        verify(messageDispatcher, times(1)).dispatch(any(ChatMessage.class), any(byte[].class));
+        saved.completeExceptionally(new RuntimeException("Redis unavailable"));
+
+        // Then: clients already saw message-1, so a notice with the same id would be dropped as a duplicate
+        ArgumentCaptor<ChatMessage> notice = ArgumentCaptor.forClass(ChatMessage.class);
+        verify(messageDispatcher, times(1)).deliverLocally(notice.capture());
+        assertEquals(ChatMessage.MessageType.SYSTEM, notice.getValue().getType());
+        assertEquals("notice-1", notice.getValue().getId());
+        assertEquals("message-1", notice.getValue().getFailedId());
+        assertEquals("test-room-1", notice.getValue().getRoomId());
+        verify(chatMetrics, times(1)).messageSent(eq("test-room-1"), anyLong(), eq(false));
+        verify(roomActivityTracker, never()).messageSent(anyString());
+    }
+
+    @Test
+    void testSubmitMessageOverRateLimitIsNotSent() {
+        // Given
+        when(sendRateLimiter.tryAcquire("session:session-1", "test-room-1"))
+                .thenReturn(SendRateLimiter.Decision.SENDER_LIMITED);
+
+        // When
+        ChatMessage notice = chatService.submitMessage(testMessage, "session:session-1");
+
+        // Then
+        assertNotNull(notice);
+        assertEquals(ChatMessage.MessageType.SYSTEM, notice.getType());
+        assertEquals("test-room-1", notice.getRoomId());
+        verify(redisService, never()).saveMessage(any(ChatMessage.class), any(byte[].class));
+        verify(messageDispatcher, never()).dispatch(any(ChatMessage.class), any(byte[].class));
+    }
+
+    @Test
+    void testSubmitMessageWithinRateLimitIsSent() {
+        // Given
+        when(sendRateLimiter.tryAcquire("session:session-1", "test-room-1")).thenReturn(SendRateLimiter.Decision.ALLOWED);
+        when(redisService.encodeMessage(any(ChatMessage.class))).thenReturn("{}".getBytes());
+        when(redisService.saveMessage(any(ChatMessage.class), any(byte[].class)))
+                .thenReturn(CompletableFuture.completedFuture(1L));
+
+        // When
+        ChatMessage notice = chatService.submitMessage(testMessage, "session:session-1");
+
+        // Then
+        assertNull(notice);
+        verify(messageDispatcher, times(1)).dispatch(eq(testMessage), any(byte[].class));
+    }
+
+    @Test
+    void testIngestMessagesStoresTheBatchInOneWrite() {
+        // Given
+        ChatMessage other = new ChatMessage("Hi", "bridge", "test-room-2", ChatMessage.MessageType.CHAT);
+        when(redisService.encodeMessage(any(ChatMessage.class))).thenReturn("{}".getBytes());
+
+        // When
+        chatService.ingestMessages(List.of(testMessage, other));
+
+        // Then
+        verify(redisService, times(1)).saveMessages(eq(List.of(testMessage, other)), anyList());
+        verify(messageDispatcher, times(2)).dispatch(any(ChatMessage.class), any(byte[].class));
+        verify(roomActivityTracker, times(1)).messageSent("test-room-1");
+        verify(roomActivityTracker, times(1)).messageSent("test-room-2");
     }
 
     @Test
@@ -127,69 +237,115 @@ public class ChatServiceTest {
         verify(redisService, times(1)).getMessageHistory("test-room-1");
     }
 
+    @Test
+    void testGetMessageHistoryPage() {
+        // Given
+        CursorPage<ChatMessage> page = new CursorPage<>(List.of(testMessage), "41");
+        when(redisService.getMessageHistory("test-room-1", "42", null, 1)).thenReturn(page);
+
+        // When
+        CursorPage<ChatMessage> result = chatService.getMessageHistory("test-room-1", "42", null, 1);
+
+        // Then
+        assertEquals(1, result.getItems().size());
+        assertEquals("41", result.getNextCursor());
+        verify(redisService, times(1)).getMessageHistory("test-room-1", "42", null, 1);
+    }
+
     @Test
     void testJoinRoom() {
         // Given
-        doNothing().when(redisService).addUserToRoom("test-room-1", "testuser");
-        doNothing().when(redisService).saveMessage(any(ChatMessage.class));
-        doNothing().when(messagingTemplate).convertAndSend(anyString(), any(ChatMessage.class));
-        doNothing().when(redisService).publishMessage(anyString(), any(ChatMessage.class));
+        when(presenceTracker.join("session-1", "test-room-1", "testuser")).thenReturn(true);
+        when(redisService.encodeMessage(any(ChatMessage.class))).thenReturn("{}".getBytes());
+        when(redisService.saveMessage(any(ChatMessage.class), any(byte[].class)))
+                .thenReturn(CompletableFuture.completedFuture(1L));
+        doNothing().when(messageDispatcher).dispatch(any(ChatMessage.class), any(byte[].class));
 
         // When
-        chatService.joinRoom("test-room-1", "testuser");
+        chatService.joinRoom("test-room-1", "testuser", "session-1");
 
         // Then
-        verify(redisService, times(1)).addUserToRoom("test-room-1", "testuser");
-        verify(redisService, times(1)).saveMessage(any(ChatMessage.class));
-        verify(messagingTemplate, times(1)).convertAndSend(eq("/topic/room/test-room-1"), any(ChatMessage.class));
+        verify(presenceTracker, times(1)).join("session-1", "test-room-1", "testuser");
+        verify(redisService, times(1)).saveMessage(any(ChatMessage.class), any(byte[].class));
+        verify(messageDispatcher, times(1)).dispatch(any(ChatMessage.class), any(byte[].class));
+    }
+
+    @Test
+    void testJoinRoomFromSecondSessionIsSilent() {
+        // Given
+        when(presenceTracker.join("session-2", "test-room-1", "testuser")).thenReturn(false);
+
+        // When
+        chatService.joinRoom("test-room-1", "testuser", "session-2");
+
+        // Then
+        verify(redisService, never()).saveMessage(any(ChatMessage.class), any(byte[].class));
+        verify(messageDispatcher, never()).dispatch(any(ChatMessage.class), any(byte[].class));
     }
 
     @Test
     void testLeaveRoom() {
         // Given
-        doNothing().when(redisService).removeUserFromRoom("test-room-1", "testuser");
-        doNothing().when(redisService).saveMessage(any(ChatMessage.class));
-        doNothing().when(messagingTemplate).convertAndSend(anyString(), any(ChatMessage.class));
-        doNothing().when(redisService).publishMessage(anyString(), any(ChatMessage.class));
+        when(presenceTracker.leave("session-1", "test-room-1", "testuser")).thenReturn(true);
+        when(redisService.encodeMessage(any(ChatMessage.class))).thenReturn("{}".getBytes());
+        when(redisService.saveMessage(any(ChatMessage.class), any(byte[].class)))
+                .thenReturn(CompletableFuture.completedFuture(1L));
+        doNothing().when(messageDispatcher).dispatch(any(ChatMessage.class), any(byte[].class));
+
+        // When
+        chatService.leaveRoom("test-room-1", "testuser", "session-1");
+
+        // Then
+        verify(presenceTracker, times(1)).leave("session-1", "test-room-1", "testuser");
+        verify(redisService, times(1)).saveMessage(any(ChatMessage.class), any(byte[].class));
+        verify(messageDispatcher, times(1)).dispatch(any(ChatMessage.class), any(byte[].class));
+    }
+
+    @Test
+    void testDisconnectLeavesEveryJoinedRoom() {
+        // Given
+        when(presenceTracker.disconnect("session-1"))
+                .thenReturn(Map.of("test-room-1", "testuser", "test-room-2", "testuser"));
+        when(redisService.encodeMessage(any(ChatMessage.class))).thenReturn("{}".getBytes());
+        when(redisService.saveMessage(any(ChatMessage.class), any(byte[].class)))
+                .thenReturn(CompletableFuture.completedFuture(1L));
 
         // When
-        chatService.leaveRoom("test-room-1", "testuser");
+        chatService.disconnect("session-1");
 
         // Then
-        verify(redisService, times(1)).removeUserFromRoom("test-room-1", "testuser");
-        verify(redisService, times(1)).saveMessage(any(ChatMessage.class));
-        verify(messagingTemplate, times(1)).convertAndSend(eq("/topic/room/test-room-1"), any(ChatMessage.class));
+        ArgumentCaptor<ChatMessage> captor = ArgumentCaptor.forClass(ChatMessage.class);
+        verify(messageDispatcher, times(2)).dispatch(captor.capture(), any(byte[].class));
+        assertTrue(captor.getAllValues().stream().allMatch(m -> m.getType() == ChatMessage.MessageType.LEAVE));
     }
 
     @Test
     void testGetRoomUsers() {
         // Given
-        Set<String> users = new HashSet<>(Arrays.asList("user1", "user2", "user3"));
-        when(redisService.getRoomUsers("test-room-1")).thenReturn(users);
+        CursorPage<String> page = new CursorPage<>(List.of("user1", "user2", "user3"), "17");
+        when(redisService.getRoomUsers("test-room-1", null, 3)).thenReturn(page);
 
         // When
-        Set<String> result = chatService.getRoomUsers("test-room-1");
+        CursorPage<String> result = chatService.getRoomUsers("test-room-1", null, 3);
 
         // Then
         assertNotNull(result);
-        assertEquals(3, result.size());
-        assertTrue(result.contains("user1"));
-        assertTrue(result.contains("user2"));
-        assertTrue(result.contains("user3"));
-        verify(redisService, times(1)).getRoomUsers("test-room-1");
+        assertEquals(List.of("user1", "user2", "user3"), result.getItems());
+        assertEquals("17", result.getNextCursor());
+        verify(redisService, times(1)).getRoomUsers("test-room-1", null, 3);
     }
 
     @Test
     void testGetRoomUserCount() {
         // Given
-        when(redisService.getRoomUserCount("test-room-1")).thenReturn(5L);
+        when(roomUserCounts.get("test-room-1")).thenReturn(5L);
 
         // When
-        Long result = chatService.getRoomUserCount("test-room-1");
+        long result = chatService.getRoomUserCount("test-room-1");
 
         // Then
-        assertNotNull(result);
         assertEquals(5L, result);
-        verify(redisService, times(1)).getRoomUserCount("test-room-1");
+        verify(roomUserCounts, times(1)).get("test-room-1");
+        verify(redisService, never()).getRoomUserCount("test-room-1");
     }
 }
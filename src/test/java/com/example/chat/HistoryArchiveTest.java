@@ -0,0 +1,194 @@
+package com.example.chat;
+
+import com.example.chat.config.NodeIdentity;
+import com.example.chat.model.ChatMessage;
+import com.example.chat.service.HistoryArchive;
+import com.example.chat.service.HistorySlice;
+import com.example.chat.service.JsonMessageCodec;
+import com.example.chat.service.MessageCodecs;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HistoryArchiveTest {
+
+    @TempDir
+    Path directory;
+
+    private SimpleMeterRegistry meterRegistry;
+    private MessageCodecs codecs;
+    private HistoryArchive archive;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        codecs = new MessageCodecs(new ObjectMapper().findAndRegisterModules()
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS), JsonMessageCodec.NAME);
+        archive = archive("node-1");
+    }
+
+    @Test
+    void testReadsPagesAcrossBlocksAndSegments() throws Exception {
+        // Given
+        for (int first = 1; first <= 41; first += 10) {
+            archive.archive("room-1", first, entries(first, 10));
+        }
+        archive.stop();
+
+        // When
+        HistorySlice before = archive.readBefore("room-1", 25, 8);
+        HistorySlice after = archive.readAfter("room-1", 17, 30);
+        HistorySlice start = archive.readBefore("room-1", 3, 8);
+
+        // Then
+        assertTrue(segmentFiles("room-1") > 1);
+        assertEquals(18, before.getFrom());
+        assertEquals(1, before.getFirstRetained());
+        assertEquals(contents(18, 25), contents(before));
+        assertEquals(17, after.getFrom());
+        assertEquals(contents(17, 46), contents(after));
+        assertEquals(contents(1, 3), contents(start));
+        assertEquals(41, meterRegistry.get("chat.archive.messages").tag("operation", "read").counter().count());
+        assertEquals(50, meterRegistry.get("chat.archive.messages").tag("operation", "write").counter().count());
+    }
+
+    @Test
+    void testStopsAtGapsAndUnknownPositions() throws Exception {
+        // Given: positions 11..20 never reached the archive
+        archive.archive("room-1", 1, entries(1, 10));
+        archive.archive("room-1", 21, entries(21, 10));
+        archive.stop();
+
+        // When
+        HistorySlice before = archive.readBefore("room-1", 25, 20);
+        HistorySlice after = archive.readAfter("room-1", 5, 20);
+
+        // Then
+        assertEquals(contents(21, 25), contents(before));
+        assertEquals(contents(5, 10), contents(after));
+        assertNull(archive.readBefore("room-1", 15, 5));
+        assertNull(archive.readAfter("room-1", 31, 5));
+        assertNull(archive.readAfter("room-2", 1, 5));
+    }
+
+    @Test
+    void testSeesBlocksWrittenAfterEarlierReads() throws Exception {
+        // Given: node-1 has read the room once, so its segments are mapped
+        archive.archive("room-1", 1, entries(1, 10));
+        HistoryArchive otherNode = archive("node-2");
+        otherNode.archive("room-1", 11, entries(11, 10));
+        otherNode.stop();
+        HistoryArchive reader = archive("node-1");
+        assertEquals(contents(1, 5), contents(reader.readAfter("room-1", 1, 5)));
+
+        // When: both nodes append to the directory they share
+        archive.archive("room-1", 21, entries(21, 10));
+        archive.archive("room-1", 31, entries(31, 10));
+        archive.stop();
+        HistorySlice after = reader.readAfter("room-1", 1, 40);
+
+        // Then
+        assertEquals(contents(1, 40), contents(after));
+        assertEquals(0, meterRegistry.get("chat.archive.gaps").counter().count());
+    }
+
+    @Test
+    void testCountsGapsInsideTheArchive() throws Exception {
+        // Given
+        archive.archive("room-1", 1, entries(1, 10));
+        archive.archive("room-1", 21, entries(21, 10));
+        archive.stop();
+
+        // When
+        archive.readBefore("room-1", 25, 20);
+        archive.readBefore("room-1", 5, 20);
+
+        // Then
+        assertEquals(1, meterRegistry.get("chat.archive.gaps").counter().count());
+    }
+
+    @Test
+    void testDeleteRemovesRoomDirectory() throws Exception {
+        // Given
+        archive.archive("room-1", 1, entries(1, 10));
+        archive.archive("room-2", 1, entries(1, 10));
+
+        // When
+        archive.delete("room-1");
+        archive.stop();
+
+        // Then
+        assertNull(archive.readAfter("room-1", 1, 5));
+        assertEquals(contents(1, 5), contents(archive.readAfter("room-2", 1, 5)));
+    }
+
+    @Test
+    void testRoomIdsStayInsideArchiveDirectory() throws Exception {
+        // When
+        archive.archive("../escape", 1, entries(1, 10));
+        archive.stop();
+
+        // Then
+        assertFalse(Files.exists(directory.resolveSibling("escape")));
+        try (Stream<Path> rooms = Files.list(directory)) {
+            assertEquals(1, rooms.count());
+        }
+        assertEquals(contents(1, 10), contents(archive.readAfter("../escape", 1, 10)));
+    }
+
+    @Test
+    void testDisabledArchiveAsksForPlainTrimming() {
+        // When
+        HistoryArchive disabled = new HistoryArchive(codecs, new NodeIdentity("node-1"), meterRegistry,
+                false, directory.toString(), 10, 200, 100, 10);
+
+        // Then
+        assertFalse(disabled.isEnabled());
+        assertEquals(0, disabled.getBatch());
+        assertEquals(10, archive.getBatch());
+    }
+
+    // Small segments, so a few blocks already span several files
+    private HistoryArchive archive(String node) {
+        return new HistoryArchive(codecs, new NodeIdentity(node), meterRegistry,
+                true, directory.toString(), 10, 200, 100, 10);
+    }
+
+    private List<byte[]> entries(long first, int count) {
+        List<byte[]> entries = new ArrayList<>(count);
+        for (long position = first; position < first + count; position++) {
+            entries.add(codecs.encode(new ChatMessage("m" + position, "user1", "room-1", ChatMessage.MessageType.CHAT)));
+        }
+        return entries;
+    }
+
+    private long segmentFiles(String roomId) throws Exception {
+        try (Stream<Path> files = Files.list(directory.resolve(roomId))) {
+            return files.filter(file -> file.toString().endsWith(".seg")).count();
+        }
+    }
+
+    private static List<String> contents(long first, long last) {
+        List<String> contents = new ArrayList<>();
+        for (long position = first; position <= last; position++) {
+            contents.add("m" + position);
+        }
+        return contents;
+    }
+
+    private static List<String> contents(HistorySlice slice) {
+        return slice.getMessages().stream().map(ChatMessage::getContent).collect(Collectors.toList());
+    }
+}
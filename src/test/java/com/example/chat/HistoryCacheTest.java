@@ -0,0 +1,132 @@
+package com.example.chat;
+
+import com.example.chat.model.ChatMessage;
+import com.example.chat.service.HistoryCache;
+import com.example.chat.service.HistorySlice;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HistoryCacheTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private HistoryCache cache;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        cache = new HistoryCache(meterRegistry, true, 2, 1_000_000, 5, 100);
+    }
+
+    @Test
+    void testServesPagesFromLoadedWindow() {
+        // Given
+        load("room-1", 1, 3);
+        cache.append("room-1", 4, messages(4, 5), sizes(2));
+
+        // When
+        HistorySlice latest = cache.read("room-1", "latest", 0, 2);
+        HistorySlice before = cache.read("room-1", "before", 4, 10);
+
+        // Then
+        assertEquals(4, latest.getFrom());
+        assertEquals(List.of("m4", "m5"), contents(latest));
+        assertEquals(1, before.getFrom());
+        assertEquals(List.of("m1", "m2", "m3"), contents(before));
+        assertEquals(2, meterRegistry.get("chat.history.cache.requests").tag("result", "hit").counter().count());
+    }
+
+    @Test
+    void testMissesOutsideWindowAndOnGap() {
+        // Given: a window of 5 holds positions 3..7 of 7
+        load("room-1", 1, 7);
+
+        // When / Then
+        assertNull(cache.read("room-1", "before", 3, 2));
+        assertNull(cache.read("room-2", "latest", 0, 2));
+
+        // A skipped position means a message was missed, so the entry is dropped
+        cache.append("room-1", 9, messages(9), sizes(1));
+        assertFalse(cache.contains("room-1"));
+        assertEquals(2, meterRegistry.get("chat.history.cache.requests").tag("result", "miss").counter().count());
+    }
+
+    @Test
+    void testIgnoresDuplicatesAndReplaysAppendsDuringLoad() {
+        // Given
+        assertTrue(cache.beginLoad("room-1"));
+        cache.append("room-1", 3, messages(3, 4), sizes(2));
+
+        // When
+        cache.completeLoad("room-1", new HistorySlice(1, 1, messages(1, 2, 3)), sizes(3));
+        cache.append("room-1", 4, messages(4), sizes(1));
+
+        // Then
+        assertEquals(List.of("m1", "m2", "m3", "m4"), contents(cache.read("room-1", "latest", 0, 10)));
+    }
+
+    @Test
+    void testDropsEntryWhenPositionsGoBackwards() {
+        // Given
+        load("room-1", 1, 3);
+        load("room-2", 1, 7);
+
+        // When: both rooms were deleted and recreated elsewhere, so their positions restart at 1
+        ChatMessage recreated = new ChatMessage("new", "user1", "room-1", ChatMessage.MessageType.CHAT);
+        recreated.setId("new-1");
+        cache.append("room-1", 1, List.of(recreated), sizes(1));
+        cache.append("room-2", 1, List.of(recreated), sizes(1));
+
+        // Then
+        assertFalse(cache.contains("room-1"));
+        assertFalse(cache.contains("room-2"));
+    }
+
+    @Test
+    void testEvictsLeastRecentlyReadRoom() {
+        // Given
+        load("room-1", 1, 1);
+        load("room-2", 1, 1);
+        cache.read("room-1", "latest", 0, 1);
+
+        // When
+        load("room-3", 1, 1);
+
+        // Then
+        assertTrue(cache.contains("room-1"));
+        assertFalse(cache.contains("room-2"));
+        assertTrue(cache.contains("room-3"));
+        assertEquals(1, meterRegistry.get("chat.history.cache.evictions").counter().count());
+    }
+
+    private void load(String roomId, long first, long last) {
+        long[] positions = new long[(int) (last - first + 1)];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = first + i;
+        }
+        assertTrue(cache.beginLoad(roomId));
+        cache.completeLoad(roomId, new HistorySlice(first, first, messages(positions)), sizes(positions.length));
+    }
+
+    private static List<ChatMessage> messages(long... positions) {
+        List<ChatMessage> messages = new ArrayList<>();
+        for (long position : positions) {
+            messages.add(new ChatMessage("m" + position, "user1", "room-1", ChatMessage.MessageType.CHAT));
+        }
+        return messages;
+    }
+
+    private static List<Integer> sizes(int count) {
+        return Collections.nCopies(count, 100);
+    }
+
+    private static List<String> contents(HistorySlice slice) {
+        return slice.getMessages().stream().map(ChatMessage::getContent).toList();
+    }
+}
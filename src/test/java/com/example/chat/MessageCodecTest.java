@@ -0,0 +1,129 @@
+package com.example.chat;
+
+import com.example.chat.model.ChatMessage;
+import com.example.chat.service.JsonMessageCodec;
+import com.example.chat.service.MessageCodec;
+import com.example.chat.service.MessageCodecs;
+import com.example.chat.service.SmileMessageCodec;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessageCodecTest {
+
+    private static final int ITERATIONS = 20_000;
+
+    private ObjectMapper objectMapper;
+    private ChatMessage testMessage;
+
+    @BeforeEach
+    void setUp() {
+        objectMapper = new ObjectMapper().findAndRegisterModules()
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        testMessage = new ChatMessage(
+                "Has anyone tried the new build on staging? The login page \"hangs\" for me after a refresh.",
+                "john_doe", "7f2b7c1e-9a4e-4f2f-8b1d-3c6a2e5d9f10", ChatMessage.MessageType.CHAT);
+        testMessage.setId("0d4b9a2c-5e3f-4b8a-9c1d-2e7f6a5b4c3d");
+    }
+
+    @Test
+    void testCodecsRoundTrip() {
+        for (String name : List.of(JsonMessageCodec.NAME, SmileMessageCodec.NAME)) {
+            // Given
+            MessageCodecs codecs = new MessageCodecs(objectMapper, name);
+
+            // When
+            ChatMessage result = codecs.decode(codecs.encode(testMessage));
+
+            // Then
+            assertEquals(testMessage.getId(), result.getId());
+            assertEquals(testMessage.getContent(), result.getContent());
+            assertEquals(testMessage.getSender(), result.getSender());
+            assertEquals(testMessage.getType(), result.getType());
+            assertEquals(testMessage.getTimestamp().withNano(0), result.getTimestamp());
+        }
+    }
+
+    @Test
+    void testDecodesLegacyDoubleEncodedEntries() throws Exception {
+        // Given: how RedisService stored messages before the codec existed
+        byte[] legacy = legacyEncode(testMessage);
+        MessageCodecs codecs = new MessageCodecs(objectMapper, SmileMessageCodec.NAME);
+
+        // When
+        ChatMessage result = codecs.decode(legacy);
+
+        // Then
+        assertEquals(testMessage.getContent(), result.getContent());
+        assertFalse(codecs.isActive(legacy));
+        assertTrue(codecs.isActive(codecs.encode(result)));
+    }
+
+    @Test
+    void testToJsonKeepsJsonBytes() {
+        // Given
+        MessageCodecs codecs = new MessageCodecs(objectMapper, JsonMessageCodec.NAME);
+        byte[] json = codecs.encode(testMessage);
+        byte[] smile = new SmileMessageCodec(objectMapper).encode(testMessage);
+
+        // When / Then
+        assertSame(json, codecs.toJson(json));
+        assertArrayEquals(json, codecs.toJson(smile));
+    }
+
+    @Test
+    void testSizeAndThroughputComparison() throws Exception {
+        // Given
+        byte[] legacy = legacyEncode(testMessage);
+        MessageCodec json = new JsonMessageCodec(objectMapper);
+        MessageCodec smile = new SmileMessageCodec(objectMapper);
+        byte[] jsonBytes = json.encode(testMessage);
+        byte[] smileBytes = smile.encode(testMessage);
+
+        // Then: one encoding is smaller than the escaped double encoding, binary is smaller still
+        assertTrue(jsonBytes.length < legacy.length);
+        assertTrue(smileBytes.length < jsonBytes.length);
+
+        List<String> report = new ArrayList<>();
+        report.add(String.format("%-8s %6s %14s", "codec", "bytes", "round trips/s"));
+        report.add(String.format("%-8s %6d %14.0f", "legacy", legacy.length, legacyThroughput()));
+        report.add(String.format("%-8s %6d %14.0f", json.getName(), jsonBytes.length, throughput(json)));
+        report.add(String.format("%-8s %6d %14.0f", smile.getName(), smileBytes.length, throughput(smile)));
+        report.forEach(System.out::println);
+    }
+
+    private byte[] legacyEncode(ChatMessage message) throws Exception {
+        return new GenericJackson2JsonRedisSerializer().serialize(objectMapper.writeValueAsString(message));
+    }
+
+    private double legacyThroughput() throws Exception {
+        GenericJackson2JsonRedisSerializer serializer = new GenericJackson2JsonRedisSerializer();
+        for (int i = 0; i < ITERATIONS; i++) {
+            serializer.deserialize(serializer.serialize(objectMapper.writeValueAsString(testMessage)));
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            byte[] data = serializer.serialize(objectMapper.writeValueAsString(testMessage));
+            objectMapper.readValue((String) serializer.deserialize(data), ChatMessage.class);
+        }
+        return ITERATIONS / ((System.nanoTime() - start) / 1e9);
+    }
+
+    private double throughput(MessageCodec codec) {
+        for (int i = 0; i < ITERATIONS; i++) {
+            codec.decode(codec.encode(testMessage));
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            codec.decode(codec.encode(testMessage));
+        }
+        return ITERATIONS / ((System.nanoTime() - start) / 1e9);
+    }
+}
@@ -0,0 +1,222 @@
+package com.example.chat;
+
+import com.example.chat.config.BatchSubscriptions;
+import com.example.chat.controller.WebSocketController;
+import com.example.chat.model.ChatMessage;
+import com.example.chat.service.ChatMetrics;
+import com.example.chat.service.ChatService;
+import com.example.chat.service.MessageBatcher;
+import com.example.chat.service.MessageCodecs;
+import com.example.chat.service.MessageDispatcher;
+import com.example.chat.service.PresenceTracker;
+import com.example.chat.service.RedisService;
+import com.example.chat.service.RoomActivityTracker;
+import com.example.chat.service.RoomUserCounts;
+import com.example.chat.service.SendRateLimiter;
+import com.example.chat.service.SnowflakeIdGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class MessageDispatchTest {
+
+    private SimpleBrokerMessageHandler broker;
+    private ObjectMapper objectMapper;
+    private RedisService redisService;
+    private WebSocketController controller;
+    private BatchSubscriptions batchSubscriptions;
+    private MessageBatcher messageBatcher;
+
+    private final Map<String, List<Message<?>>> framesBySession = new HashMap<>();
+
+    @BeforeEach
+    void setUp() {
+        ExecutorSubscribableChannel clientInbound = new ExecutorSubscribableChannel();
+        ExecutorSubscribableChannel clientOutbound = new ExecutorSubscribableChannel();
+        ExecutorSubscribableChannel brokerChannel = new ExecutorSubscribableChannel();
+        clientOutbound.subscribe(message -> {
+            SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+            if (accessor.getMessageType() == SimpMessageType.MESSAGE) {
+                framesBySession.computeIfAbsent(accessor.getSessionId(), id -> new ArrayList<>()).add(message);
+            }
+        });
+
+        broker = new SimpleBrokerMessageHandler(clientInbound, clientOutbound, brokerChannel, List.of("/topic"));
+        broker.start();
+
+        objectMapper = spy(new ObjectMapper().findAndRegisterModules());
+        MessageCodecs codecs = new MessageCodecs(objectMapper, "json");
+        redisService = mock(RedisService.class);
+        when(redisService.encodeMessage(any(ChatMessage.class)))
+                .thenAnswer(invocation -> codecs.encode(invocation.getArgument(0)));
+        when(redisService.saveMessage(any(ChatMessage.class), any(byte[].class)))
+                .thenReturn(CompletableFuture.completedFuture(1L));
+        SimpMessagingTemplate messagingTemplate = new SimpMessagingTemplate(brokerChannel);
+        batchSubscriptions = new BatchSubscriptions(true);
+        // Not started, so batches only go out when the test flushes
+        messageBatcher = new MessageBatcher(messagingTemplate, batchSubscriptions, new SimpleMeterRegistry(),
+                true, "simple", 25, 100);
+        MessageDispatcher dispatcher = new MessageDispatcher(messagingTemplate, codecs, messageBatcher);
+        RoomUserCounts roomUserCounts = new RoomUserCounts(redisService, 60_000);
+        controller = new WebSocketController(new ChatService(redisService, dispatcher,
+                new PresenceTracker(redisService, roomUserCounts, new SimpleMeterRegistry()), roomUserCounts,
+                new SnowflakeIdGenerator(0), new ChatMetrics(new SimpleMeterRegistry(), 10),
+                new SendRateLimiter(redisService, new SimpleMeterRegistry(), false, 5, 10, 50, 100, false),
+                new RoomActivityTracker(redisService, 60_000, 5, 5_000)));
+
+        subscribe("session-1", "/topic/room/room-1");
+        subscribe("session-2", "/topic/room/room-1");
+        subscribe("session-3", "/topic/room/room-1");
+    }
+
+    @AfterEach
+    void tearDown() {
+        broker.stop();
+    }
+
+    @Test
+    void testSendMessageDeliversOneFramePerSubscriber() throws Exception {
+        // When
+        controller.sendMessage("room-1", new ChatMessage("Hello", "user1", null, null), sender("session-1"));
+
+        // Then
+        assertEquals(3, framesBySession.size());
+        framesBySession.values().forEach(frames -> assertEquals(1, frames.size()));
+        verify(objectMapper, times(1)).writeValueAsBytes(any());
+        verify(redisService, times(1)).saveMessage(any(ChatMessage.class), any(byte[].class));
+
+        // All subscribers share the single encoded payload
+        Object payload = framesBySession.get("session-1").get(0).getPayload();
+        assertSame(payload, framesBySession.get("session-2").get(0).getPayload());
+        assertSame(payload, framesBySession.get("session-3").get(0).getPayload());
+    }
+
+    @Test
+    void testJoinAndLeaveDeliverOneFramePerSubscriber() {
+        // Given
+        SimpMessageHeaderAccessor headerAccessor = SimpMessageHeaderAccessor.create();
+        headerAccessor.setSessionId("session-1");
+        headerAccessor.setSessionAttributes(new HashMap<>());
+        ChatMessage joinRequest = new ChatMessage(null, "user1", null, null);
+        when(redisService.addUserToRoom("room-1", "user1")).thenReturn(true);
+        when(redisService.removeUserFromRoom("room-1", "user1")).thenReturn(true);
+
+        // When
+        controller.joinRoom("room-1", joinRequest, null, headerAccessor);
+        controller.leaveRoom("room-1", joinRequest, headerAccessor);
+
+        // Then
+        assertEquals(3, framesBySession.size());
+        framesBySession.values().forEach(frames -> assertEquals(2, frames.size()));
+        verify(redisService, times(2)).saveMessage(any(ChatMessage.class), any(byte[].class));
+    }
+
+    @Test
+    void testBatchSubscriberGetsOneArrayFrame() throws Exception {
+        // Given
+        subscribeBatch(batchSubscriptions, "session-4");
+
+        // When
+        controller.sendMessage("room-1", new ChatMessage("one", "user1", null, null), sender("session-1"));
+        controller.sendMessage("room-1", new ChatMessage("two", "user1", null, null), sender("session-1"));
+        assertNull(framesBySession.get("session-4"));
+        messageBatcher.flush();
+
+        // Then
+        assertEquals(2, framesBySession.get("session-1").size());
+        assertEquals(1, framesBySession.get("session-4").size());
+        String batch = new String((byte[]) framesBySession.get("session-4").get(0).getPayload(), StandardCharsets.UTF_8);
+        ChatMessage[] messages = objectMapper.readValue(batch, ChatMessage[].class);
+        assertEquals(2, messages.length);
+        assertEquals("one", messages[0].getContent());
+        assertEquals("two", messages[1].getContent());
+        assertTrue(batchSubscriptions.hasSubscribers("room-1"));
+        assertFalse(batchSubscriptions.hasSubscribers("room-2"));
+    }
+
+    @Test
+    void testBatchHeaderIsIgnoredWhenBatchingIsDisabled() throws Exception {
+        // Given
+        BatchSubscriptions disabled = new BatchSubscriptions(false);
+        subscribeBatch(disabled, "session-4");
+
+        // When
+        controller.sendMessage("room-1", new ChatMessage("one", "user1", null, null), sender("session-1"));
+
+        // Then
+        assertEquals(1, framesBySession.get("session-4").size());
+        String frame = new String((byte[]) framesBySession.get("session-4").get(0).getPayload(), StandardCharsets.UTF_8);
+        assertEquals("one", objectMapper.readValue(frame, ChatMessage.class).getContent());
+        assertFalse(disabled.hasSubscribers("room-1"));
+    }
+
+    @Test
+    void testSenderLimitCountsTheSessionNotTheName() {
+        // Given
+        ChatService chatService = mock(ChatService.class);
+        WebSocketController sessionController = new WebSocketController(chatService);
+
+        // When: a client renames itself on every message
+        sessionController.sendMessage("room-1", new ChatMessage("one", "bot-1", null, null), sender("session-9"));
+        sessionController.sendMessage("room-1", new ChatMessage("two", "bot-2", null, null), sender("session-9"));
+
+        // Then
+        verify(chatService, times(2)).submitMessage(any(ChatMessage.class), eq("session:session-9"));
+    }
+
+    private static SimpMessageHeaderAccessor sender(String sessionId) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create();
+        accessor.setSessionId(sessionId);
+        return accessor;
+    }
+
+    // Subscribes to room-1 with the batch header, through the given interceptor as the inbound channel would
+    private void subscribeBatch(BatchSubscriptions interceptor, String sessionId) {
+        SimpMessageHeaderAccessor connect = SimpMessageHeaderAccessor.create(SimpMessageType.CONNECT);
+        connect.setSessionId(sessionId);
+        broker.handleMessage(MessageBuilder.createMessage(new byte[0], connect.getMessageHeaders()));
+        StompHeaderAccessor subscribe = StompHeaderAccessor.create(StompCommand.SUBSCRIBE);
+        subscribe.setSessionId(sessionId);
+        subscribe.setSubscriptionId("sub-" + sessionId);
+        subscribe.setDestination("/topic/room/room-1");
+        subscribe.setNativeHeader(BatchSubscriptions.BATCH_HEADER, "true");
+        subscribe.setLeaveMutable(true);
+        broker.handleMessage(interceptor.preSend(
+                MessageBuilder.createMessage(new byte[0], subscribe.getMessageHeaders()), null));
+    }
+
+    private void subscribe(String sessionId, String destination) {
+        SimpMessageHeaderAccessor connect = SimpMessageHeaderAccessor.create(SimpMessageType.CONNECT);
+        connect.setSessionId(sessionId);
+        broker.handleMessage(MessageBuilder.createMessage(new byte[0], connect.getMessageHeaders()));
+
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.SUBSCRIBE);
+        accessor.setSessionId(sessionId);
+        accessor.setSubscriptionId("sub-" + sessionId);
+        accessor.setDestination(destination);
+        broker.handleMessage(MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders()));
+    }
+}
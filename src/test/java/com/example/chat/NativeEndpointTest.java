@@ -0,0 +1,117 @@
+package com.example.chat;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+import redis.embedded.RedisServer;
+
+import java.lang.reflect.Type;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// STOMP over the plain WebSocket endpoint, with permessage-deflate offered by the client
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"app.chat.rate-limit.enabled=false", "app.chat.history-cache.enabled=false"})
+public class NativeEndpointTest {
+
+    private static RedisServer redisServer;
+
+    @LocalServerPort
+    private int port;
+
+    @DynamicPropertySource
+    static void startRedis(DynamicPropertyRegistry registry) throws Exception {
+        int redisPort;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            redisPort = socket.getLocalPort();
+        }
+        redisServer = new RedisServer(redisPort);
+        redisServer.start();
+        registry.add("spring.data.redis.port", () -> redisPort);
+    }
+
+    @AfterAll
+    static void stopRedis() throws Exception {
+        redisServer.stop();
+    }
+
+    @Test
+    void testNativeEndpointNegotiatesDeflate() throws Exception {
+        // When
+        WebSocketSession session = new StandardWebSocketClient()
+                .execute(new AbstractWebSocketHandler() {}, deflateHeaders(), URI.create(url()))
+                .get(10, TimeUnit.SECONDS);
+
+        // Then
+        assertEquals(List.of("permessage-deflate"),
+                session.getExtensions().stream().map(WebSocketExtension::getName).toList());
+        session.close();
+    }
+
+    @Test
+    void testCompressedStompSessionSendsAndReceives() throws Exception {
+        // Given
+        StompSession session = new WebSocketStompClient(new StandardWebSocketClient())
+                .connectAsync(url(), deflateHeaders(), new StompSessionHandlerAdapter() {})
+                .get(10, TimeUnit.SECONDS);
+        BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        session.subscribe("/topic/room/native-room-1", new StompFrameHandler() {
+            @Override
+            public Type getPayloadType(StompHeaders headers) {
+                return byte[].class;
+            }
+
+            @Override
+            public void handleFrame(StompHeaders headers, Object payload) {
+                received.add(new String((byte[]) payload, StandardCharsets.UTF_8));
+            }
+        });
+
+        // When
+        StompHeaders headers = new StompHeaders();
+        headers.setDestination("/app/chat.sendMessage/native-room-1");
+        headers.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        // The simple broker sends no receipts, so repeat the send until the subscription is in place
+        String message = null;
+        for (int attempt = 0; attempt < 10 && message == null; attempt++) {
+            session.send(headers, "{\"sender\":\"user1\",\"content\":\"over deflate\"}".getBytes(StandardCharsets.UTF_8));
+            message = received.poll(1, TimeUnit.SECONDS);
+        }
+
+        // Then
+        assertNotNull(message);
+        assertTrue(message.contains("\"content\":\"over deflate\""));
+        session.disconnect();
+    }
+
+    private String url() {
+        return "ws://localhost:" + port + "/ws-native";
+    }
+
+    private static WebSocketHttpHeaders deflateHeaders() {
+        WebSocketHttpHeaders headers = new WebSocketHttpHeaders();
+        headers.setSecWebSocketExtensions(List.of(new WebSocketExtension("permessage-deflate")));
+        return headers;
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.chat;
+
+import com.example.chat.service.PresenceTracker;
+import com.example.chat.service.RedisService;
+import com.example.chat.service.RoomUserCounts;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class PresenceTrackerTest {
+
+    @Mock
+    private RedisService redisService;
+
+    @Mock
+    private RoomUserCounts roomUserCounts;
+
+    private PresenceTracker presenceTracker;
+
+    @BeforeEach
+    void setUp() {
+        presenceTracker = new PresenceTracker(redisService, roomUserCounts, new SimpleMeterRegistry());
+    }
+
+    @Test
+    void testUserStaysPresentUntilLastSessionLeaves() {
+        // Given
+        when(redisService.addUserToRoom("room-1", "user1")).thenReturn(true);
+        when(redisService.removeUserFromRoom("room-1", "user1")).thenReturn(true);
+        assertTrue(presenceTracker.join("session-1", "room-1", "user1"));
+        assertFalse(presenceTracker.join("session-2", "room-1", "user1"));
+
+        // When / Then
+        assertFalse(presenceTracker.leave("session-1", "room-1", "user1"));
+        verify(redisService, never()).removeUserFromRoom("room-1", "user1");
+
+        assertTrue(presenceTracker.leave("session-2", "room-1", "user1"));
+        verify(redisService, times(1)).removeUserFromRoom("room-1", "user1");
+        verify(roomUserCounts, times(1)).adjust("room-1", 1);
+        verify(roomUserCounts, times(1)).adjust("room-1", -1);
+    }
+
+    @Test
+    void testDisconnectLeavesEveryRoomOfTheSession() {
+        // Given
+        when(redisService.removeUserFromRoom("room-1", "user1")).thenReturn(true);
+        presenceTracker.join("session-1", "room-1", "user1");
+        presenceTracker.join("session-1", "room-2", "user1");
+        presenceTracker.join("session-2", "room-2", "user1");
+
+        // When
+        Map<String, String> left = presenceTracker.disconnect("session-1");
+
+        // Then: still in room-2 through session-2
+        assertEquals(Map.of("room-1", "user1"), left);
+        verify(redisService, times(1)).removeUserFromRoom("room-1", "user1");
+        verify(redisService, never()).removeUserFromRoom("room-2", "user1");
+        assertTrue(presenceTracker.disconnect("session-1").isEmpty());
+    }
+
+    @Test
+    void testUserConnectedThroughAnotherNodeNeitherJoinsNorLeaves() {
+        // Given: Redis reports a live session of user1 on another node
+        when(redisService.addUserToRoom("room-1", "user1")).thenReturn(false);
+        when(redisService.removeUserFromRoom("room-1", "user1")).thenReturn(false);
+
+        // When
+        boolean joined = presenceTracker.join("session-1", "room-1", "user1");
+        boolean left = presenceTracker.leave("session-1", "room-1", "user1");
+
+        // Then: this node's last session is gone, so it stops counting the user
+        assertFalse(joined);
+        assertFalse(left);
+        verify(redisService, times(1)).removeUserFromRoom("room-1", "user1");
+        verify(roomUserCounts, times(1)).adjust("room-1", -1);
+    }
+
+    @Test
+    void testHeartbeatRefreshesLocalMembers() {
+        // Given
+        presenceTracker.join("session-1", "room-1", "user1");
+        presenceTracker.join("session-2", "room-1", "user2");
+        presenceTracker.join("session-3", "room-2", "user3");
+        presenceTracker.disconnect("session-3");
+
+        // When
+        presenceTracker.heartbeat();
+
+        // Then
+        verify(redisService, times(1)).refreshPresence(Map.of("room-1", Set.of("user1", "user2")));
+    }
+
+    @Test
+    void testHeartbeatSkipsRedisWithoutSessions() {
+        // When
+        presenceTracker.heartbeat();
+
+        // Then
+        verify(redisService, never()).refreshPresence(anyMap());
+    }
+}
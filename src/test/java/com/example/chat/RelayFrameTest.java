@@ -0,0 +1,54 @@
+package com.example.chat;
+
+import com.example.chat.service.RelayFrame;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RelayFrameTest {
+
+    @Test
+    void testDecodesSingleMessageFrame() {
+        // When
+        RelayFrame frame = RelayFrame.decode(bytes("node-1\n42\n{\"content\":\"a\\nb\"}"));
+
+        // Then
+        assertEquals("node-1", frame.getOrigin());
+        assertEquals(42, frame.getPosition());
+        assertEquals(List.of("{\"content\":\"a\\nb\"}"), strings(frame.getPayloads()));
+    }
+
+    @Test
+    void testDecodesBatchFrame() {
+        // Given: lengths are in bytes, and payloads may contain newlines
+        String first = "{\"content\":\"hé\"}";
+        String second = "{\n}";
+        String encoded = "node-1\n7\n*2\n" + bytes(first).length + "\n" + first + bytes(second).length + "\n" + second;
+
+        // When
+        RelayFrame frame = RelayFrame.decode(bytes(encoded));
+
+        // Then
+        assertEquals(7, frame.getPosition());
+        assertEquals(List.of(first, second), strings(frame.getPayloads()));
+    }
+
+    @Test
+    void testRejectsTruncatedBatchFrame() {
+        assertThrows(IllegalArgumentException.class, () -> RelayFrame.decode(bytes("node-1\n7\n*2\n3\n{}}")));
+        assertThrows(IllegalArgumentException.class, () -> RelayFrame.decode(bytes("node-1\n7\n*2\n9\n{}")));
+        assertThrows(IllegalArgumentException.class, () -> RelayFrame.decode(bytes("node-1\n{}")));
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<String> strings(List<byte[]> payloads) {
+        return payloads.stream().map(p -> new String(p, StandardCharsets.UTF_8)).collect(Collectors.toList());
+    }
+}
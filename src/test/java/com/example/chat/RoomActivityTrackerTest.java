@@ -0,0 +1,160 @@
+package com.example.chat;
+
+import com.example.chat.model.ChatRoom;
+import com.example.chat.model.RoomActivity;
+import com.example.chat.service.RedisService;
+import com.example.chat.service.RoomActivityTracker;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class RoomActivityTrackerTest {
+
+    @Mock
+    private RedisService redisService;
+
+    private RoomActivityTracker tracker;
+
+    @BeforeEach
+    void setUp() {
+        tracker = new RoomActivityTracker(redisService, 60_000, 5, 5_000);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testFlushSendsCountsOnceAndStartsOver() {
+        // Given
+        tracker.messageSent("room-1");
+        tracker.messageSent("room-1");
+        tracker.messageSent("room-2");
+
+        // When
+        tracker.flush();
+        tracker.flush();
+
+        // Then: the second flush only keeps the ranking moving
+        ArgumentCaptor<Map<String, Long>> counts = ArgumentCaptor.forClass(Map.class);
+        ArgumentCaptor<Map<String, LocalDateTime>> lastActivity = ArgumentCaptor.forClass(Map.class);
+        verify(redisService, times(2)).flushRoomActivity(anyLong(), eq(5), eq(60_000L), eq(5_000L),
+                counts.capture(), lastActivity.capture());
+        assertEquals(Map.of("room-1", 2L, "room-2", 1L), counts.getAllValues().get(0));
+        assertEquals(2, lastActivity.getAllValues().get(0).size());
+        assertTrue(counts.getAllValues().get(1).isEmpty());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testFailedFlushKeepsCounts() {
+        // Given
+        tracker.messageSent("room-1");
+        doThrow(new RuntimeException("Redis unavailable")).doNothing().when(redisService)
+                .flushRoomActivity(anyLong(), anyInt(), anyLong(), anyLong(), anyMap(), anyMap());
+        tracker.flush();
+        tracker.messageSent("room-1");
+
+        // When
+        tracker.flush();
+
+        // Then
+        ArgumentCaptor<Map<String, Long>> counts = ArgumentCaptor.forClass(Map.class);
+        verify(redisService, times(2)).flushRoomActivity(anyLong(), anyInt(), anyLong(), anyLong(),
+                counts.capture(), anyMap());
+        assertEquals(Map.of("room-1", 2L), counts.getAllValues().get(1));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testFlushesManyRoomsInChunksAndRebuildsOnce() {
+        // Given
+        for (int room = 0; room < 1200; room++) {
+            tracker.messageSent("room-" + room);
+        }
+
+        // When
+        tracker.flush();
+
+        // Then: 500 + 500 + 200 rooms, and only the last call may rebuild the ranking
+        ArgumentCaptor<Map<String, Long>> counts = ArgumentCaptor.forClass(Map.class);
+        ArgumentCaptor<Long> rebuild = ArgumentCaptor.forClass(Long.class);
+        verify(redisService, times(3)).flushRoomActivity(anyLong(), anyInt(), anyLong(), rebuild.capture(),
+                counts.capture(), anyMap());
+        assertEquals(List.of(500, 500, 200), counts.getAllValues().stream().map(Map::size).toList());
+        assertEquals(List.of(0L, 0L, 5_000L), rebuild.getAllValues());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testCountsEveryMessageSentDuringFlushes() throws Exception {
+        // Given
+        Map<String, Long> flushed = new ConcurrentHashMap<>();
+        doAnswer(invocation -> {
+            Map<String, Long> counts = invocation.getArgument(4);
+            counts.forEach((roomId, count) -> flushed.merge(roomId, count, Long::sum));
+            return null;
+        }).when(redisService).flushRoomActivity(anyLong(), anyInt(), anyLong(), anyLong(), anyMap(), anyMap());
+        ExecutorService senders = Executors.newFixedThreadPool(4);
+
+        // When: rooms keep going idle and coming back while flushes run
+        List<Future<?>> sent = new ArrayList<>();
+        for (int thread = 0; thread < 4; thread++) {
+            sent.add(senders.submit(() -> {
+                for (int i = 0; i < 50_000; i++) {
+                    tracker.messageSent("room-" + (i % 3));
+                }
+            }));
+        }
+        while (!sent.stream().allMatch(Future::isDone)) {
+            tracker.flush();
+        }
+        senders.shutdown();
+        tracker.flush();
+
+        // Then
+        assertEquals(200_000L, flushed.values().stream().mapToLong(Long::longValue).sum());
+    }
+
+    @Test
+    void testTrendingRoomsSkipDeletedRoomsAndReportRates() {
+        // Given
+        Map<String, Long> counts = new LinkedHashMap<>();
+        counts.put("room-2", 600L);
+        counts.put("deleted-room", 300L);
+        counts.put("room-1", 60L);
+        when(redisService.getTrendingRooms(3)).thenReturn(counts);
+        when(redisService.getRooms(counts.keySet())).thenReturn(List.of(
+                new ChatRoom("room-1", "Room One", ""), new ChatRoom("room-2", "Room Two", "")));
+
+        // When
+        List<RoomActivity> trending = tracker.getTrendingRooms(3);
+
+        // Then: the window spans 5 full minutes plus part of the current one
+        assertEquals(2, trending.size());
+        assertEquals("room-2", trending.get(0).getRoomId());
+        assertEquals("Room Two", trending.get(0).getName());
+        assertEquals(600L, trending.get(0).getMessages());
+        double rate = trending.get(0).getMessagesPerSecond();
+        assertTrue(rate > 600 / 360.0 && rate <= 600 / 300.0, "rate " + rate);
+        assertEquals("room-1", trending.get(1).getRoomId());
+    }
+}
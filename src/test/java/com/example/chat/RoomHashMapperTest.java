@@ -0,0 +1,60 @@
+package com.example.chat;
+
+import com.example.chat.model.ChatRoom;
+import com.example.chat.service.RoomHashMapper;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RoomHashMapperTest {
+
+    @Test
+    void testRoundTrip() {
+        // Given
+        ChatRoom room = new ChatRoom("room-1", "General \"chat\"", null);
+
+        // When
+        Map<String, String> hash = RoomHashMapper.toHash(room);
+        ChatRoom result = RoomHashMapper.fromHash(hash);
+
+        // Then
+        assertEquals("General \"chat\"", hash.get("name"));
+        assertFalse(hash.containsKey("description"));
+        assertEquals("room-1", result.getId());
+        assertEquals(room.getName(), result.getName());
+        assertNull(result.getDescription());
+        assertEquals(room.getCreatedAt(), result.getCreatedAt());
+        assertEquals(room.getLastActivity(), result.getLastActivity());
+    }
+
+    @Test
+    void testReadsLegacyJsonEncodedHash() {
+        // Given: a room hash as written through GenericJackson2JsonRedisSerializer
+        Map<String, String> legacy = Map.of(
+                "id", "\"room-1\"",
+                "name", "\"General\"",
+                "description", "\"A \\\"quoted\\\" room\"",
+                "activeUsers", "[\"java.util.ArrayList\",[]]",
+                "createdAt", "\"2024-05-01T10:15:30.123\"",
+                "lastActivity", "\"2024-05-01T11:00:00\"",
+                "userCount", "0");
+
+        // When
+        ChatRoom result = RoomHashMapper.fromHash(legacy);
+
+        // Then
+        assertEquals("room-1", result.getId());
+        assertEquals("General", result.getName());
+        assertEquals("A \"quoted\" room", result.getDescription());
+        assertEquals(LocalDateTime.of(2024, 5, 1, 10, 15, 30, 123_000_000), result.getCreatedAt());
+        assertEquals(LocalDateTime.of(2024, 5, 1, 11, 0), result.getLastActivity());
+    }
+
+    @Test
+    void testMissingRoomIsNull() {
+        assertNull(RoomHashMapper.fromHash(Map.of()));
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.chat;
+
+import com.example.chat.service.RedisService;
+import com.example.chat.service.RoomUserCounts;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class RoomUserCountsTest {
+
+    @Mock
+    private RedisService redisService;
+
+    private RoomUserCounts roomUserCounts;
+
+    @BeforeEach
+    void setUp() {
+        roomUserCounts = new RoomUserCounts(redisService, 60_000);
+    }
+
+    @Test
+    void testReadsAreServedLocallyAfterFirstLoad() {
+        // Given
+        when(redisService.getRoomUserCount("room-1")).thenReturn(3L);
+
+        // When
+        long first = roomUserCounts.get("room-1");
+        roomUserCounts.adjust("room-1", 1);
+        long second = roomUserCounts.get("room-1");
+
+        // Then
+        assertEquals(3L, first);
+        assertEquals(4L, second);
+        verify(redisService, times(1)).getRoomUserCount("room-1");
+    }
+
+    @Test
+    void testReconcileReplacesLocalCounts() {
+        // Given
+        when(redisService.getRoomUserCount("room-1")).thenReturn(3L);
+        roomUserCounts.get("room-1");
+        roomUserCounts.adjust("room-1", -10);
+        when(redisService.getRoomUserCounts(List.of("room-1"))).thenReturn(Map.of("room-1", 7L));
+
+        // When
+        long adjusted = roomUserCounts.get("room-1");
+        roomUserCounts.reconcile();
+
+        // Then
+        assertEquals(0L, adjusted);
+        assertEquals(7L, roomUserCounts.get("room-1"));
+    }
+
+    @Test
+    void testIdleRoomsAreNotReconciled() throws Exception {
+        // Given
+        roomUserCounts = new RoomUserCounts(redisService, 1);
+        when(redisService.getRoomUserCount("room-1")).thenReturn(3L);
+        roomUserCounts.get("room-1");
+        Thread.sleep(5);
+
+        // When
+        roomUserCounts.reconcile();
+
+        // Then
+        verify(redisService, never()).getRoomUserCounts(anyCollection());
+    }
+}
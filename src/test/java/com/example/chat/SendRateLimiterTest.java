@@ -0,0 +1,122 @@
+package com.example.chat;
+
+import com.example.chat.service.RedisService;
+import com.example.chat.service.SendRateLimiter;
+import com.example.chat.service.TokenBucket;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class SendRateLimiterTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    @Mock
+    private RedisService redisService;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void testBucketAllowsBurstThenRefillsAtRate() {
+        // Given: 2 permits per second, bursts of 3
+        TokenBucket bucket = new TokenBucket(2, 3, 0);
+
+        // When / Then
+        assertTrue(bucket.tryAcquire(0));
+        assertTrue(bucket.tryAcquire(0));
+        assertTrue(bucket.tryAcquire(0));
+        assertFalse(bucket.tryAcquire(0));
+        assertFalse(bucket.tryAcquire(SECOND / 2 - 1));
+        assertTrue(bucket.tryAcquire(SECOND / 2));
+        assertFalse(bucket.tryAcquire(SECOND / 2));
+
+        assertFalse(bucket.isFull(SECOND));
+        assertTrue(bucket.isFull(2 * SECOND));
+        assertTrue(bucket.tryAcquire(10 * SECOND));
+        assertTrue(bucket.tryAcquire(10 * SECOND));
+        assertTrue(bucket.tryAcquire(10 * SECOND));
+        assertFalse(bucket.tryAcquire(10 * SECOND));
+    }
+
+    @Test
+    void testSenderLimitIsPerSender() {
+        // Given
+        SendRateLimiter limiter = new SendRateLimiter(redisService, meterRegistry, true, 1, 2, 100, 100, false);
+
+        // When / Then
+        assertEquals(SendRateLimiter.Decision.ALLOWED, limiter.tryAcquire("user1", "room-1"));
+        assertEquals(SendRateLimiter.Decision.ALLOWED, limiter.tryAcquire("user1", "room-1"));
+        assertEquals(SendRateLimiter.Decision.SENDER_LIMITED, limiter.tryAcquire("user1", "room-1"));
+        assertEquals(SendRateLimiter.Decision.ALLOWED, limiter.tryAcquire("user2", "room-1"));
+        assertEquals(1.0, rejected("sender", "local"));
+        verifyNoInteractions(redisService);
+    }
+
+    @Test
+    void testRoomLimitCoversAllSenders() {
+        // Given
+        SendRateLimiter limiter = new SendRateLimiter(redisService, meterRegistry, true, 100, 100, 1, 3, false);
+
+        // When / Then
+        assertEquals(SendRateLimiter.Decision.ALLOWED, limiter.tryAcquire("user1", "room-1"));
+        assertEquals(SendRateLimiter.Decision.ALLOWED, limiter.tryAcquire("user2", "room-1"));
+        assertEquals(SendRateLimiter.Decision.ALLOWED, limiter.tryAcquire("user3", "room-1"));
+        assertEquals(SendRateLimiter.Decision.ROOM_LIMITED, limiter.tryAcquire("user4", "room-1"));
+        assertEquals(SendRateLimiter.Decision.ALLOWED, limiter.tryAcquire("user4", "room-2"));
+        assertEquals(1.0, rejected("room", "local"));
+    }
+
+    @Test
+    void testGlobalTierIsAskedOnlyAfterLocalTierPasses() {
+        // Given
+        SendRateLimiter limiter = new SendRateLimiter(redisService, meterRegistry, true, 1, 1, 100, 100, true);
+        when(redisService.acquireSendPermits(anyString(), anyString(), anyLong(), anyInt(), anyLong(), anyInt()))
+                .thenReturn(2L);
+
+        // When
+        SendRateLimiter.Decision first = limiter.tryAcquire("user1", "room-1");
+        SendRateLimiter.Decision second = limiter.tryAcquire("user1", "room-1");
+
+        // Then
+        assertEquals(SendRateLimiter.Decision.ROOM_LIMITED, first);
+        assertEquals(SendRateLimiter.Decision.SENDER_LIMITED, second);
+        verify(redisService, times(1)).acquireSendPermits("user1", "room-1", 1_000_000L, 1, 10_000L, 100);
+        assertEquals(1.0, rejected("room", "global"));
+    }
+
+    @Test
+    void testGlobalTierFailureAllowsTheMessage() {
+        // Given
+        SendRateLimiter limiter = new SendRateLimiter(redisService, meterRegistry, true, 10, 10, 100, 100, true);
+        when(redisService.acquireSendPermits(anyString(), anyString(), anyLong(), anyInt(), anyLong(), anyInt()))
+                .thenThrow(new RuntimeException("Redis unavailable"));
+
+        // When / Then
+        assertEquals(SendRateLimiter.Decision.ALLOWED, limiter.tryAcquire("user1", "room-1"));
+    }
+
+    @Test
+    void testDisabledLimiterAllowsEverything() {
+        // Given
+        SendRateLimiter limiter = new SendRateLimiter(redisService, meterRegistry, false, 1, 1, 1, 1, true);
+
+        // When / Then
+        for (int i = 0; i < 10; i++) {
+            assertEquals(SendRateLimiter.Decision.ALLOWED, limiter.tryAcquire("user1", "room-1"));
+        }
+        verifyNoInteractions(redisService);
+    }
+
+    private double rejected(String limit, String tier) {
+        return meterRegistry.get("chat.ratelimit.rejected").tag("limit", limit).tag("tier", tier).counter().count();
+    }
+}
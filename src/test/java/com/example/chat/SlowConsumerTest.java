@@ -0,0 +1,95 @@
+package com.example.chat;
+
+import com.example.chat.config.SlowConsumerGuard;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.SessionLimitExceededException;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class SlowConsumerTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private WebSocketSession session;
+    private final List<String> sent = new CopyOnWriteArrayList<>();
+    private final CountDownLatch sending = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @BeforeEach
+    void setUp() throws Exception {
+        meterRegistry = new SimpleMeterRegistry();
+        session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn("session-1");
+        // The first send blocks like a client that has stopped reading
+        doAnswer(invocation -> {
+            sending.countDown();
+            release.await(10, TimeUnit.SECONDS);
+            sent.add(((WebSocketMessage<?>) invocation.getArgument(0)).getPayload().toString());
+            return null;
+        }).when(session).sendMessage(any());
+    }
+
+    @Test
+    void testDropOldestKeepsNewestFrames() throws Exception {
+        // Given
+        WebSocketSession decorated = new SlowConsumerGuard(meterRegistry, "drop-oldest").decorate(session, 60_000, 250);
+        Thread sender = blockedSender(decorated);
+
+        // When: four more 100-byte frames queue behind the stuck send
+        for (int i = 2; i <= 5; i++) {
+            decorated.sendMessage(frame(i));
+        }
+        release.countDown();
+        sender.join(10_000);
+
+        // Then
+        assertEquals(List.of(frame(1).getPayload(), frame(4).getPayload(), frame(5).getPayload()), sent);
+        assertEquals(2, meterRegistry.get("chat.websocket.overflow.dropped.messages").counter().count());
+        assertEquals(1, meterRegistry.get("chat.websocket.overflow.sessions").tag("outcome", "dropped").counter().count());
+        assertEquals(0, meterRegistry.get("chat.websocket.send.buffer").gauge().value());
+    }
+
+    @Test
+    void testDisconnectPolicyEndsSession() throws Exception {
+        // Given
+        WebSocketSession decorated = new SlowConsumerGuard(meterRegistry, "disconnect").decorate(session, 60_000, 250);
+        Thread sender = blockedSender(decorated);
+        decorated.sendMessage(frame(2));
+        decorated.sendMessage(frame(3));
+
+        // When / Then
+        assertThrows(SessionLimitExceededException.class, () -> decorated.sendMessage(frame(4)));
+        release.countDown();
+        sender.join(10_000);
+        assertEquals(List.of(frame(1).getPayload()), sent);
+        assertEquals(1, meterRegistry.get("chat.websocket.overflow.sessions").tag("outcome", "disconnected").counter().count());
+    }
+
+    private Thread blockedSender(WebSocketSession decorated) throws InterruptedException {
+        Thread sender = new Thread(() -> {
+            try {
+                decorated.sendMessage(frame(1));
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        sender.start();
+        assertTrue(sending.await(10, TimeUnit.SECONDS));
+        return sender;
+    }
+
+    private static TextMessage frame(int number) {
+        return new TextMessage(String.valueOf(number).repeat(100));
+    }
+}
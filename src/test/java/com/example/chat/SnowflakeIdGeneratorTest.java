@@ -0,0 +1,99 @@
+package com.example.chat;
+
+import com.example.chat.service.IdGenerator;
+import com.example.chat.service.SnowflakeIdGenerator;
+import com.example.chat.service.UuidIdGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SnowflakeIdGeneratorTest {
+
+    private static final int ITERATIONS = 200_000;
+
+    @Test
+    void testIdsFromOneWorkerAreIncreasingStrings() {
+        // Given
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(7);
+
+        // When
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            ids.add(generator.nextId());
+        }
+
+        // Then: fixed width, so string order is numeric order
+        for (int i = 1; i < ids.size(); i++) {
+            assertEquals(16, ids.get(i).length());
+            assertTrue(ids.get(i - 1).compareTo(ids.get(i)) < 0);
+        }
+    }
+
+    @Test
+    void testConcurrentCallersNeverShareAnId() throws Exception {
+        // Given
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(1);
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        int threads = 4;
+        CountDownLatch done = new CountDownLatch(threads);
+
+        // When
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                for (int i = 0; i < 50_000; i++) {
+                    ids.add(generator.nextLong());
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+
+        // Then
+        assertEquals(threads * 50_000, ids.size());
+    }
+
+    @Test
+    void testTimestampIsRecoverableAndWorkersDiffer() {
+        // Given
+        long before = System.currentTimeMillis();
+        String first = new SnowflakeIdGenerator(1).nextId();
+        String second = new SnowflakeIdGenerator(2).nextId();
+
+        // Then
+        assertTrue(SnowflakeIdGenerator.timestampOf(first) >= before);
+        assertTrue(SnowflakeIdGenerator.timestampOf(first) <= System.currentTimeMillis());
+        assertNotEquals(first, second);
+        assertThrows(IllegalArgumentException.class, () -> new SnowflakeIdGenerator(SnowflakeIdGenerator.MAX_WORKER_ID + 1));
+    }
+
+    @Test
+    void testThroughputComparison() {
+        // Given
+        List<IdGenerator> generators = List.of(new UuidIdGenerator(), new SnowflakeIdGenerator(0));
+
+        // Then
+        List<String> report = new ArrayList<>();
+        report.add(String.format("%-10s %12s", "generator", "ids/s"));
+        for (IdGenerator generator : generators) {
+            report.add(String.format("%-10s %12.0f", generator.getName(), throughput(generator)));
+        }
+        report.forEach(System.out::println);
+    }
+
+    private double throughput(IdGenerator generator) {
+        for (int i = 0; i < ITERATIONS; i++) {
+            generator.nextId();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            generator.nextId();
+        }
+        return ITERATIONS / ((System.nanoTime() - start) / 1e9);
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.chat;
+
+import com.example.chat.config.NodeIdentity;
+import com.example.chat.config.WorkerIdLease;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import redis.embedded.RedisServer;
+
+import java.net.ServerSocket;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WorkerIdLeaseTest {
+
+    private static RedisServer redisServer;
+    private static LettuceConnectionFactory connectionFactory;
+    private static StringRedisTemplate redisTemplate;
+
+    @BeforeAll
+    static void startRedis() throws Exception {
+        int redisPort;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            redisPort = socket.getLocalPort();
+        }
+        redisServer = new RedisServer(redisPort);
+        redisServer.start();
+        connectionFactory = new LettuceConnectionFactory("localhost", redisPort);
+        connectionFactory.afterPropertiesSet();
+        redisTemplate = new StringRedisTemplate(connectionFactory);
+    }
+
+    @AfterAll
+    static void stopRedis() throws Exception {
+        connectionFactory.destroy();
+        redisServer.stop();
+    }
+
+    @BeforeEach
+    void setUp() {
+        redisTemplate.execute((RedisCallback<Object>) connection -> {
+            connection.serverCommands().flushAll();
+            return null;
+        });
+    }
+
+    @Test
+    void testNodesWithTheSameHashGetDistinctIds() {
+        // Given: "Aa" and "BB" have the same hashCode, so both searches start at the same id
+        WorkerIdLease first = lease("Aa");
+        WorkerIdLease second = lease("BB");
+
+        // When
+        int firstId = first.claim();
+        int secondId = second.claim();
+
+        // Then
+        assertNotEquals(firstId, secondId);
+        assertEquals("Aa", redisTemplate.opsForValue().get("chat:worker:" + firstId));
+        assertEquals("BB", redisTemplate.opsForValue().get("chat:worker:" + secondId));
+    }
+
+    @Test
+    void testRestartedNodeTakesItsIdBackAndRenewsIt() {
+        // Given
+        int leased = lease("node-1").claim();
+
+        // When
+        WorkerIdLease restarted = lease("node-1");
+        int reclaimed = restarted.claim();
+        redisTemplate.delete("chat:worker:" + reclaimed);
+        restarted.renew();
+
+        // Then: a lease that expired meanwhile is taken back
+        assertEquals(leased, reclaimed);
+        assertEquals("node-1", redisTemplate.opsForValue().get("chat:worker:" + reclaimed));
+        assertTrue(redisTemplate.getExpire("chat:worker:" + reclaimed) > 0);
+    }
+
+    private static WorkerIdLease lease(String nodeId) {
+        return new WorkerIdLease(redisTemplate, new NodeIdentity(nodeId), 30_000);
+    }
+}